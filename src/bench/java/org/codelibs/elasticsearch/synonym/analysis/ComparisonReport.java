@@ -0,0 +1,102 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the comparison benchmarks with the GC profiler, prints tokens/s and bytes/token of each
+ * implementation, and appends them to a CSV file (target/benchmark-comparison.csv by default)
+ * with the plugin and Lucene versions, so results of releases can be compared.
+ *
+ * <p>Arguments are {@code name=value} pairs: {@code output} is the CSV file, {@code include}
+ * a benchmark regex (both comparison benchmarks by default), and any other name overrides a
+ * benchmark parameter with comma separated values, e.g. {@code ruleCount=1000,10000}.</p>
+ */
+public class ComparisonReport {
+
+    private static final String HEADER = "version,lucene,benchmark,params,impl,docs_per_sec,tokens_per_sec,bytes_per_token";
+
+    public static void main(final String[] args) throws Exception {
+        Path output = Paths.get("target", "benchmark-comparison.csv");
+        String include = "ComparisonBenchmark";
+        final ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid argument [" + arg + "]. It must be name=value.");
+            }
+            final String name = arg.substring(0, eq);
+            final String value = arg.substring(eq + 1);
+            if ("output".equals(name)) {
+                output = Paths.get(value);
+            } else if ("include".equals(name)) {
+                include = value;
+            } else {
+                options.param(name, value.split(","));
+            }
+        }
+
+        final Collection<RunResult> results = new Runner(options.include(include).build()).run();
+
+        final String version = System.getProperty("bench.version", "unknown");
+        final List<String> lines = new ArrayList<>();
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-60s %-22s %12s %14s %10s", "benchmark", "impl", "docs/s", "tokens/s", "B/token"));
+        for (final RunResult result : results) {
+            final BenchmarkParams params = result.getParams();
+            final String benchmark = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.', params.getBenchmark().lastIndexOf('.') - 1) + 1);
+            final StringBuilder paramText = new StringBuilder();
+            for (final String key : params.getParamsKeys()) {
+                if (!"impl".equals(key)) {
+                    paramText.append(paramText.length() == 0 ? "" : ";").append(key).append('=').append(params.getParam(key));
+                }
+            }
+            final double docs = result.getPrimaryResult().getScore();
+            final double tokens = getScore(result.getSecondaryResults(), "tokens");
+            final double allocated = getScore(result.getSecondaryResults(), "·gc.alloc.rate.norm");
+            final double bytesPerToken = tokens > 0 ? allocated * docs / tokens : Double.NaN;
+
+            System.out.println(String.format(Locale.ROOT, "%-60s %-22s %12.1f %14.1f %10.2f", benchmark + " " + paramText,
+                    params.getParam("impl"), docs, tokens, bytesPerToken));
+            lines.add(String.format(Locale.ROOT, "%s,%s,%s,%s,%s,%.1f,%.1f,%.3f", version, Version.LATEST, benchmark, paramText,
+                    params.getParam("impl"), docs, tokens, bytesPerToken));
+        }
+
+        write(output, lines);
+        System.out.println();
+        System.out.println("Appended " + lines.size() + " results to " + output);
+    }
+
+    private static double getScore(final Map<String, Result> results, final String label) {
+        final Result result = results.get(label);
+        return result == null ? Double.NaN : result.getScore();
+    }
+
+    private static void write(final Path output, final List<String> lines) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        if (!Files.exists(output)) {
+            Files.write(output, (HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(output, lines, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+}
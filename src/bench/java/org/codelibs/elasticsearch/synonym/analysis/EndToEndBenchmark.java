@@ -0,0 +1,239 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+
+/**
+ * Indexes a generated corpus into an embedded cluster through "ngram_synonym" and "synonym_filter",
+ * then runs a fixed mix of match_phrase queries, and reports docs/s, query latency percentiles and
+ * the index size on disk. The second half of the corpus is indexed, and the queries are run a second time,
+ * while the reloadable dictionary is rewritten, to show the effect of reloads.
+ *
+ * <p>Arguments are {@code name=value} pairs: {@code nodes} (1), {@code docs} (50000 per index),
+ * {@code docLength} (chars, 200), {@code ruleCount} (10000), {@code queries} (2000 per phase),
+ * {@code bulkSize} (500), {@code reloadMillis} (interval between rewrites, 1000) and
+ * {@code reloadInterval} (the "reload_interval" setting, 1s).</p>
+ */
+public class EndToEndBenchmark {
+
+    private static final String TYPE = "doc";
+
+    private static final String FIELD = "body";
+
+    private static final String SYNONYM_FILE = "bench_synonym.txt";
+
+    private static final int QUERY_MIX_SIZE = 200;
+
+    private final int nodes;
+
+    private final int docs;
+
+    private final int docLength;
+
+    private final int queries;
+
+    private final int bulkSize;
+
+    private final int reloadMillis;
+
+    private final String reloadInterval;
+
+    private final BenchmarkData data;
+
+    private final List<Path> synonymFiles = new ArrayList<>();
+
+    private ElasticsearchClusterRunner runner;
+
+    private int version;
+
+    EndToEndBenchmark(final Map<String, String> args) {
+        nodes = Integer.parseInt(args.getOrDefault("nodes", "1"));
+        docs = Integer.parseInt(args.getOrDefault("docs", "50000"));
+        docLength = Integer.parseInt(args.getOrDefault("docLength", "200"));
+        queries = Integer.parseInt(args.getOrDefault("queries", "2000"));
+        bulkSize = Integer.parseInt(args.getOrDefault("bulkSize", "500"));
+        reloadMillis = Integer.parseInt(args.getOrDefault("reloadMillis", "1000"));
+        reloadInterval = args.getOrDefault("reloadInterval", "1s");
+        data = new BenchmarkData(Integer.parseInt(args.getOrDefault("ruleCount", "10000")), "mixed", false);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> map = new HashMap<>();
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid argument [" + arg + "]. It must be name=value.");
+            }
+            map.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new EndToEndBenchmark(map).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        runner = new ElasticsearchClusterRunner();
+        runner.build(newConfigs().numOfNode(nodes).clusterName("synonym-bench-" + System.currentTimeMillis())
+                .pluginTypes("org.codelibs.elasticsearch.synonym.SynonymPlugin"));
+        try {
+            for (int i = 0; i < nodes; i++) {
+                synonymFiles.add(Paths.get(runner.getNode(i).settings().get("path.home"), "config", SYNONYM_FILE));
+            }
+            writeDictionary();
+            runner.ensureYellow();
+
+            run("ngram_synonym", "{\"tokenizer\":{\"bench\":{\"type\":\"ngram_synonym\",\"n\":\"2\",\"synonyms_path\":\"" + SYNONYM_FILE
+                    + "\",\"dynamic_reload\":true,\"reload_interval\":\"" + reloadInterval + "\"}},"
+                    + "\"analyzer\":{\"bench\":{\"type\":\"custom\",\"tokenizer\":\"bench\"}}}", false);
+            run("synonym_filter", "{\"filter\":{\"bench\":{\"type\":\"synonym_filter\",\"synonyms_path\":\"" + SYNONYM_FILE
+                    + "\",\"dynamic_reload\":true,\"reload_interval\":\"" + reloadInterval + "\"}},"
+                    + "\"analyzer\":{\"bench\":{\"type\":\"custom\",\"tokenizer\":\"whitespace\",\"filter\":[\"bench\"]}}}", true);
+        } finally {
+            runner.close();
+            runner.clean();
+        }
+    }
+
+    private void run(final String name, final String analysis, final boolean words) throws Exception {
+        final String index = "bench_" + name;
+        runner.createIndex(index, Settings.builder()
+                .loadFromSource("{\"index\":{\"number_of_shards\":1,\"number_of_replicas\":0,\"analysis\":" + analysis + "}}",
+                        XContentType.JSON)
+                .build());
+        runner.createMapping(index, TYPE, XContentFactory.jsonBuilder().startObject().startObject(TYPE).startObject("properties")
+                .startObject(FIELD).field("type", "text").field("analyzer", "bench").endObject().endObject().endObject().endObject());
+        runner.ensureYellow(index);
+
+        final List<String> corpus = new ArrayList<>(docs);
+        for (int i = 0; i < docs; i++) {
+            corpus.add(words ? data.words(docLength) : data.text("mixed", docLength));
+        }
+        final List<String> queryMix = createQueryMix(corpus, words);
+
+        System.out.println(name + ":");
+        // the first tenth warms up the indexing path
+        index(index, corpus.subList(0, docs / 10), false);
+        final double indexRate = index(index, corpus.subList(docs / 10, docs / 2), false);
+        final double reloadIndexRate = index(index, corpus.subList(docs / 2, docs), true);
+        System.out.println(String.format(Locale.ROOT, "  indexing     %.0f docs/s, %.0f docs/s while reloading", indexRate, reloadIndexRate));
+
+        final Client client = runner.client();
+        client.admin().indices().prepareRefresh(index).get();
+        client.admin().indices().prepareForceMerge(index).setMaxNumSegments(1).setFlush(true).get();
+        final long size = client.admin().indices().prepareStats(index).setStore(true).get().getTotal().getStore().getSizeInBytes();
+        System.out.println(String.format(Locale.ROOT, "  index size   %.1f MB, %.0f bytes/doc", size / 1048576.0, (double) size / docs));
+
+        reportLatency("queries     ", search(index, queryMix, false));
+        reportLatency("w/ reloads  ", search(index, queryMix, true));
+    }
+
+    private double index(final String index, final List<String> texts, final boolean reload) throws IOException {
+        final Client client = runner.client();
+        final long start = System.nanoTime();
+        long lastReload = start;
+        for (int from = 0; from < texts.size(); from += bulkSize) {
+            if (reload && System.nanoTime() - lastReload > reloadMillis * 1_000_000L) {
+                writeDictionary();
+                lastReload = System.nanoTime();
+            }
+            final BulkRequestBuilder bulk = client.prepareBulk();
+            for (final String text : texts.subList(from, Math.min(from + bulkSize, texts.size()))) {
+                bulk.add(client.prepareIndex(index, TYPE).setSource(FIELD, text));
+            }
+            final BulkResponse response = bulk.get();
+            if (response.hasFailures()) {
+                throw new IllegalStateException("Failed to index: " + response.buildFailureMessage());
+            }
+        }
+        return texts.size() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private long[] search(final String index, final List<String> queryMix, final boolean reload) throws IOException {
+        final Client client = runner.client();
+        // warm up caches and the query path
+        for (final String query : queryMix) {
+            client.prepareSearch(index).setQuery(QueryBuilders.matchPhraseQuery(FIELD, query)).setSize(10).get();
+        }
+        final long[] latencies = new long[queries];
+        long lastReload = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            if (reload && System.nanoTime() - lastReload > reloadMillis * 1_000_000L) {
+                writeDictionary();
+                lastReload = System.nanoTime();
+            }
+            final long start = System.nanoTime();
+            client.prepareSearch(index).setQuery(QueryBuilders.matchPhraseQuery(FIELD, queryMix.get(i % queryMix.size()))).setSize(10)
+                    .get();
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void reportLatency(final String label, final long[] sorted) {
+        System.out.println(String.format(Locale.ROOT, "  %s p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms", label,
+                percentile(sorted, 0.5), percentile(sorted, 0.95), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6));
+    }
+
+    private static double percentile(final long[] sorted, final double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    // phrases of 2 to 8 chars, or 1 to 3 words, from the corpus
+    private static List<String> createQueryMix(final List<String> corpus, final boolean words) {
+        final Random random = new Random(0);
+        final List<String> queryMix = new ArrayList<>(QUERY_MIX_SIZE);
+        while (queryMix.size() < QUERY_MIX_SIZE) {
+            final String text = corpus.get(random.nextInt(corpus.size()));
+            if (words) {
+                final String[] tokens = text.trim().split(" ");
+                final int length = Math.min(1 + random.nextInt(3), tokens.length);
+                final int start = random.nextInt(tokens.length - length + 1);
+                queryMix.add(String.join(" ", Arrays.asList(tokens).subList(start, start + length)));
+            } else {
+                final int length = Math.min(2 + random.nextInt(7), text.length());
+                final int start = random.nextInt(text.length() - length + 1);
+                final String query = text.substring(start, start + length).trim();
+                if (!query.isEmpty()) {
+                    queryMix.add(query);
+                }
+            }
+        }
+        return queryMix;
+    }
+
+    // a new version adds one rule, and gets a later timestamp even on file systems keeping seconds only
+    private void writeDictionary() throws IOException {
+        version++;
+        final byte[] rules = (data.getRules() + "版" + version + ",v" + version + "\n").getBytes(StandardCharsets.UTF_8);
+        for (final Path file : synonymFiles) {
+            final Path tmp = file.resolveSibling(SYNONYM_FILE + ".tmp");
+            Files.write(tmp, rules);
+            final File tmpFile = tmp.toFile();
+            tmpFile.setLastModified(System.currentTimeMillis() / 1000 * 1000 + version * 1000L);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
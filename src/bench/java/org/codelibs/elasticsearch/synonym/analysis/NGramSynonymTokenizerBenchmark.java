@@ -0,0 +1,67 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link NGramSynonymTokenizer} over about 10K chars of CJK or mixed text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NGramSynonymTokenizerBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int ruleCount;
+
+    @Param({ "short", "long", "mixed" })
+    public String ruleLength;
+
+    @Param({ "cjk", "mixed" })
+    public String textKind;
+
+    @Param({ "1", "2", "3" })
+    public int n;
+
+    private String text;
+
+    private NGramSynonymTokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        final BenchmarkData data = new BenchmarkData(ruleCount, ruleLength, false);
+        text = data.text(textKind, 10_000);
+        tokenizer = new NGramSynonymTokenizer(n, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+                SynonymNormalizer.forMatching(true), data.buildSynonymLoader(true), Integer.MAX_VALUE, Integer.MAX_VALUE,
+                new SynonymStats());
+    }
+
+    @Benchmark
+    public int analyze() throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        tokenizer.reset();
+        int count = 0;
+        while (tokenizer.incrementToken()) {
+            count++;
+        }
+        tokenizer.end();
+        tokenizer.close();
+        return count;
+    }
+}
@@ -0,0 +1,80 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.ngram.NGramTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link NGramSynonymTokenizer} side by side with Lucene's NGramTokenizer of the same gram size,
+ * on the same text of about 10K chars. The Lucene tokenizer has no dictionary, so it is the cost of plain n-grams.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NGramTokenizerComparisonBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int ruleCount;
+
+    @Param({ "cjk", "mixed" })
+    public String textKind;
+
+    @Param({ "1", "2", "3" })
+    public int n;
+
+    @Param({ "ngram_synonym", "lucene_ngram" })
+    public String impl;
+
+    private String text;
+
+    private Tokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        final BenchmarkData data = new BenchmarkData(ruleCount, "mixed", false);
+        text = data.text(textKind, 10_000);
+        switch (impl) {
+        case "ngram_synonym":
+            tokenizer = new NGramSynonymTokenizer(n, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+                    SynonymNormalizer.forMatching(true), data.buildSynonymLoader(true), Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    new SynonymStats());
+            break;
+        case "lucene_ngram":
+            tokenizer = new NGramTokenizer(n, n);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown impl: " + impl);
+        }
+    }
+
+    @Benchmark
+    public int analyze(final TokenCounter counter) throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        tokenizer.reset();
+        int count = 0;
+        while (tokenizer.incrementToken()) {
+            count++;
+        }
+        tokenizer.end();
+        tokenizer.close();
+        counter.tokens += count;
+        return count;
+    }
+}
@@ -0,0 +1,352 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+
+/**
+ * Runs {@link SynonymFilter}s and {@link NGramSynonymTokenizer}s on many threads while a writer
+ * rewrites their reloadable dictionary, and reports the throughput, the latency of {@code reset()},
+ * where reloads happen, and the time analysis threads were blocked on monitors.
+ *
+ * <p>Every dictionary version maps a set of keys to a token naming the version, and every document
+ * contains these keys, so a token stream mixing two versions between {@code reset()} and {@code end()}
+ * is detected. The harness exits with 1 when that happens or when analysis fails.</p>
+ *
+ * <p>Arguments are {@code name=value} pairs: {@code threads} (64), {@code seconds} (30),
+ * {@code reloadMillis} (interval between rewrites, 100), {@code reloadInterval} (the "reload_interval"
+ * setting in ms, 10) and {@code ruleCount} (size of the dictionary besides the keys, 10000).</p>
+ */
+public class ReloadStressHarness {
+
+    private static final int KEY_COUNT = 200;
+
+    private static final int DOC_COUNT = 16;
+
+    private static final int DOC_LENGTH = 1000;
+
+    private final int threads;
+
+    private final int seconds;
+
+    private final int reloadMillis;
+
+    private final int reloadInterval;
+
+    private final String baseRules;
+
+    private final String[] keys = new String[KEY_COUNT];
+
+    private final List<String> tokenizerDocs = new ArrayList<>();
+
+    private final List<String> filterDocs = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    private final AtomicInteger inconsistentStreams = new AtomicInteger();
+
+    private final AtomicInteger missingVersions = new AtomicInteger();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    ReloadStressHarness(final Map<String, String> args) {
+        threads = Integer.parseInt(args.getOrDefault("threads", "64"));
+        seconds = Integer.parseInt(args.getOrDefault("seconds", "30"));
+        reloadMillis = Integer.parseInt(args.getOrDefault("reloadMillis", "100"));
+        reloadInterval = Integer.parseInt(args.getOrDefault("reloadInterval", "10"));
+        final BenchmarkData data = new BenchmarkData(Integer.parseInt(args.getOrDefault("ruleCount", "10000")), "mixed", false);
+        baseRules = data.getRules();
+
+        // Hangul keys do not collide with the katakana and ideographs of the generated rules
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = new String(new char[] { (char) (0xAC00 + 2 * i), (char) (0xAC01 + 2 * i) });
+        }
+        final Random random = new Random(0);
+        for (int i = 0; i < DOC_COUNT; i++) {
+            final StringBuilder text = new StringBuilder();
+            final StringBuilder words = new StringBuilder();
+            while (text.length() < DOC_LENGTH) {
+                text.append(data.text("cjk", 50)).append(keys[random.nextInt(KEY_COUNT)]);
+                words.append(data.words(50)).append(keys[random.nextInt(KEY_COUNT)]).append(' ');
+            }
+            tokenizerDocs.add(text.toString());
+            filterDocs.add(words.toString());
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> map = new HashMap<>();
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid argument [" + arg + "]. It must be name=value.");
+            }
+            map.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.exit(new ReloadStressHarness(map).run() ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        final Path home = Files.createTempDirectory("synonym-stress");
+        final Path config = Files.createDirectories(home.resolve("config"));
+        final Path file = config.resolve("synonym.txt");
+        try {
+            writeRules(file, 1);
+            final Environment env = new Environment(Settings.builder().put("path.home", home.toString()).build(), config);
+            final Settings settings = Settings.builder().put("synonyms_path", "synonym.txt").put("dynamic_reload", true)
+                    .put("reload_interval", reloadInterval + "ms").build();
+            final SynonymLoader filterLoader = new SynonymLoader(env, settings, true, SynonymLoader.getAnalyzer(true));
+            // as NGramSynonymTokenizerFactory, the automaton is built with each dictionary
+            final SynonymLoader tokenizerLoader = new SynonymLoader(env, settings, true, SynonymLoader.getAnalyzer(true), true);
+
+            final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (threadBean.isThreadContentionMonitoringSupported()) {
+                threadBean.setThreadContentionMonitoringEnabled(true);
+            }
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final Worker[] workers = new Worker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(i % 2 == 0 ? filterLoader : null, i % 2 == 0 ? null : tokenizerLoader, start, threadBean);
+                workers[i].setName("analysis-" + i);
+                workers[i].start();
+            }
+
+            final long startTime = System.nanoTime();
+            start.countDown();
+            int version = 1;
+            long writeNanos = 0;
+            while (System.nanoTime() - startTime < seconds * 1_000_000_000L) {
+                Thread.sleep(reloadMillis);
+                final long t = System.nanoTime();
+                writeRules(file, ++version);
+                writeNanos += System.nanoTime() - t;
+            }
+            running = false;
+            for (final Worker worker : workers) {
+                worker.join();
+            }
+            final double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+            report(workers, elapsed, version, writeNanos);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(config);
+            Files.deleteIfExists(home);
+        }
+
+        if (failure.get() != null) {
+            System.out.println("FAILED: analysis failed");
+            failure.get().printStackTrace(System.out);
+            return false;
+        }
+        if (inconsistentStreams.get() > 0 || missingVersions.get() > 0) {
+            System.out.println("FAILED: " + inconsistentStreams.get() + " streams mixed dictionary versions, "
+                    + missingVersions.get() + " streams saw no version");
+            return false;
+        }
+        return true;
+    }
+
+    // the file is replaced atomically, with a distinct timestamp even on file systems keeping seconds only
+    private void writeRules(final Path file, final int version) throws IOException {
+        final StringBuilder sb = new StringBuilder(baseRules);
+        for (final String key : keys) {
+            sb.append(key).append(",v").append(version).append('\n');
+        }
+        final Path tmp = file.resolveSibling("synonym.txt.tmp");
+        Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+        tmp.toFile().setLastModified(1_000_000_000_000L + version * 1000L);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void report(final Worker[] workers, final double elapsed, final int versions, final long writeNanos) {
+        for (final boolean filter : new boolean[] { true, false }) {
+            long docs = 0;
+            long tokens = 0;
+            long reloads = 0;
+            long blockedCount = 0;
+            long blockedTime = 0;
+            int maxVersion = 0;
+            final List<Worker> sampled = new ArrayList<>();
+            int sampleCount = 0;
+            for (final Worker worker : workers) {
+                if ((worker.filterLoader != null) == filter) {
+                    docs += worker.docs;
+                    tokens += worker.tokens;
+                    reloads += worker.reloads;
+                    blockedCount += worker.blockedCount;
+                    blockedTime += worker.blockedTime;
+                    maxVersion = Math.max(maxVersion, worker.lastVersion);
+                    sampled.add(worker);
+                    sampleCount += (int) Math.min(worker.docs, worker.resetNanos.length);
+                }
+            }
+            final long[] samples = new long[sampleCount];
+            int upto = 0;
+            for (final Worker worker : sampled) {
+                // only the first docs slots of a worker hold samples
+                final int n = (int) Math.min(worker.docs, worker.resetNanos.length);
+                System.arraycopy(worker.resetNanos, 0, samples, upto, n);
+                upto += n;
+            }
+            Arrays.sort(samples, 0, upto);
+
+            System.out.println(filter ? "synonym_filter:" : "ngram_synonym:");
+            System.out.println(String.format(Locale.ROOT, "  throughput   %.0f docs/s, %.0f tokens/s", docs / elapsed, tokens / elapsed));
+            System.out.println(String.format(Locale.ROOT, "  reset()      p50 %.1f us, p99 %.1f us, max %.1f us", percentile(samples, upto, 0.5),
+                    percentile(samples, upto, 0.99), upto == 0 ? 0 : samples[upto - 1] / 1000.0));
+            System.out.println(String.format(Locale.ROOT, "  reloads      %d seen by streams, last version %d of %d", reloads, maxVersion, versions));
+            System.out.println(String.format(Locale.ROOT, "  contention   %d blocks, %d ms blocked", blockedCount, blockedTime));
+        }
+        System.out.println(String.format(Locale.ROOT, "writer: %d versions, %.1f ms per write", versions, writeNanos / 1e6 / Math.max(versions - 1, 1)));
+    }
+
+    private static double percentile(final long[] sorted, final int length, final double p) {
+        if (length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(length - 1, (int) Math.ceil(p * length) - 1)] / 1000.0;
+    }
+
+    private class Worker extends Thread {
+
+        private final SynonymLoader filterLoader;
+
+        private final Tokenizer tokenizer;
+
+        private final TokenStream stream;
+
+        private final CountDownLatch start;
+
+        private final ThreadMXBean threadBean;
+
+        private long[] resetNanos = new long[1024];
+
+        private long docs;
+
+        private long tokens;
+
+        private long reloads;
+
+        private int lastVersion;
+
+        private long blockedCount;
+
+        private long blockedTime;
+
+        Worker(final SynonymLoader filterLoader, final SynonymLoader tokenizerLoader, final CountDownLatch start,
+                final ThreadMXBean threadBean) {
+            this.filterLoader = filterLoader;
+            this.start = start;
+            this.threadBean = threadBean;
+            if (filterLoader != null) {
+                tokenizer = new WhitespaceTokenizer();
+                stream = new SynonymFilter(tokenizer, filterLoader, SynonymNormalizer.forMatching(true), Integer.MAX_VALUE,
+                        Integer.MAX_VALUE, new SynonymStats(), false);
+            } else {
+                tokenizer = new NGramSynonymTokenizer(2, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true, true, tokenizerLoader);
+                stream = tokenizer;
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<String> docList = filterLoader != null ? filterDocs : tokenizerDocs;
+            final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            try {
+                start.await();
+                int next = 0;
+                while (running) {
+                    tokenizer.setReader(new StringReader(docList.get(next++ % docList.size())));
+                    final long t = System.nanoTime();
+                    stream.reset();
+                    final long elapsed = System.nanoTime() - t;
+                    if (docs >= resetNanos.length && resetNanos.length < 1 << 22) {
+                        resetNanos = Arrays.copyOf(resetNanos, resetNanos.length * 2);
+                    }
+                    if (docs < resetNanos.length) {
+                        resetNanos[(int) docs] = elapsed;
+                    }
+
+                    int version = 0;
+                    boolean consistent = true;
+                    while (stream.incrementToken()) {
+                        tokens++;
+                        final int v = getVersion(termAtt);
+                        if (v > 0) {
+                            if (version == 0) {
+                                version = v;
+                            } else if (v != version) {
+                                consistent = false;
+                            }
+                        }
+                    }
+                    stream.end();
+                    stream.close();
+                    docs++;
+
+                    if (!consistent) {
+                        inconsistentStreams.incrementAndGet();
+                    }
+                    if (version == 0) {
+                        missingVersions.incrementAndGet();
+                    } else if (version != lastVersion) {
+                        if (lastVersion != 0) {
+                            reloads++;
+                        }
+                        lastVersion = version;
+                    }
+                }
+            } catch (final Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                final ThreadInfo info = threadBean.getThreadInfo(getId());
+                if (info != null) {
+                    blockedCount = info.getBlockedCount();
+                    blockedTime = Math.max(info.getBlockedTime(), 0);
+                }
+            }
+        }
+
+        // returns N of a "vN" token, or 0 for other tokens
+        private int getVersion(final CharTermAttribute termAtt) {
+            final int length = termAtt.length();
+            if (length < 2 || termAtt.charAt(0) != 'v') {
+                return 0;
+            }
+            int version = 0;
+            for (int i = 1; i < length; i++) {
+                final char c = termAtt.charAt(i);
+                if (c < '0' || c > '9') {
+                    return 0;
+                }
+                version = version * 10 + c - '0';
+            }
+            return version;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link SynonymFilter} over a whitespace token stream of about 10K chars.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SynonymFilterBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int ruleCount;
+
+    @Param({ "short", "long", "mixed" })
+    public String ruleLength;
+
+    @Param({ "false", "true" })
+    public boolean graph;
+
+    private String text;
+
+    private Tokenizer tokenizer;
+
+    private TokenStream stream;
+
+    @Setup
+    public void setup() {
+        final BenchmarkData data = new BenchmarkData(ruleCount, ruleLength, true);
+        text = data.words(10_000);
+        tokenizer = new WhitespaceTokenizer();
+        stream = new SynonymFilter(tokenizer, data.buildSynonymLoader(true), SynonymNormalizer.forMatching(true),
+                Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), graph);
+    }
+
+    @Benchmark
+    public int analyze() throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        stream.reset();
+        int count = 0;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        stream.end();
+        stream.close();
+        return count;
+    }
+}
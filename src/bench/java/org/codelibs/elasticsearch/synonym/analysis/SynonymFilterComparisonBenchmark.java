@@ -0,0 +1,88 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link SynonymFilter} side by side with Lucene's SynonymFilter and SynonymGraphFilter,
+ * on the same dictionary and whitespace token stream of about 10K chars.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SynonymFilterComparisonBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int ruleCount;
+
+    @Param({ "short", "long", "mixed" })
+    public String ruleLength;
+
+    @Param({ "synonym_filter", "synonym_filter_graph", "lucene_synonym", "lucene_synonym_graph" })
+    public String impl;
+
+    private String text;
+
+    private Tokenizer tokenizer;
+
+    private TokenStream stream;
+
+    @Setup
+    @SuppressWarnings("deprecation")
+    public void setup() {
+        final BenchmarkData data = new BenchmarkData(ruleCount, ruleLength, true);
+        text = data.words(10_000);
+        tokenizer = new WhitespaceTokenizer();
+        final SynonymMap synonymMap = data.buildSynonymMap(true);
+        switch (impl) {
+        case "synonym_filter":
+        case "synonym_filter_graph":
+            stream = new SynonymFilter(tokenizer, data.buildSynonymLoader(true), SynonymNormalizer.forMatching(true),
+                    Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), "synonym_filter_graph".equals(impl));
+            break;
+        case "lucene_synonym":
+            stream = new org.apache.lucene.analysis.synonym.SynonymFilter(tokenizer, synonymMap, true);
+            break;
+        case "lucene_synonym_graph":
+            stream = new SynonymGraphFilter(tokenizer, synonymMap, true);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown impl: " + impl);
+        }
+    }
+
+    @Benchmark
+    public int analyze(final TokenCounter counter) throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        stream.reset();
+        int count = 0;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        stream.end();
+        stream.close();
+        counter.tokens += count;
+        return count;
+    }
+}
@@ -0,0 +1,69 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for {@link SynonymLoader} to read a rules file and build the dictionary with its automaton.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SynonymLoaderBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int ruleCount;
+
+    @Param({ "short", "long", "mixed" })
+    public String ruleLength;
+
+    private Path home;
+
+    private Environment env;
+
+    private Settings settings;
+
+    @Setup
+    public void setup() throws IOException {
+        home = Files.createTempDirectory("synonym-bench");
+        final Path config = Files.createDirectories(home.resolve("config"));
+        Files.write(config.resolve("synonym.txt"),
+                new BenchmarkData(ruleCount, ruleLength, false).getRules().getBytes(StandardCharsets.UTF_8));
+        env = new Environment(Settings.builder().put("path.home", home.toString()).build(), config);
+        settings = Settings.builder().put("synonyms_path", "synonym.txt").build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(home.resolve("config").resolve("synonym.txt"));
+        Files.deleteIfExists(home.resolve("config"));
+        Files.deleteIfExists(home);
+    }
+
+    @Benchmark
+    public SynonymAutomaton build() {
+        final SynonymLoader loader = new SynonymLoader(env, settings, true, SynonymLoader.getAnalyzer(true));
+        return loader.getSynonymDictionary().getAutomaton();
+    }
+}
@@ -0,0 +1,22 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the tokens produced by a benchmark, so JMH reports them per second next to the documents.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class TokenCounter {
+
+    public long tokens;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        tokens = 0;
+    }
+}
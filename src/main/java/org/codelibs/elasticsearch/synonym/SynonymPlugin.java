@@ -1,5 +1,6 @@
 package org.codelibs.elasticsearch.synonym;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 
@@ -7,34 +8,56 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.codelibs.elasticsearch.synonym.analysis.NGramSynonymTokenizerFactory;
+import org.codelibs.elasticsearch.synonym.analysis.SynonymSlowLog;
+import org.codelibs.elasticsearch.synonym.analysis.SynonymStatsRegistry;
 import org.codelibs.elasticsearch.synonym.analysis.SynonymTokenFilterFactory;
+import org.codelibs.elasticsearch.synonym.rest.RestSynonymProfileAction;
+import org.codelibs.elasticsearch.synonym.rest.RestSynonymStatsAction;
 import org.codelibs.elasticsearch.synonym.service.SynonymAnalysisService;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AnalysisRegistry;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenizerFactory;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
 import org.elasticsearch.indices.analysis.AnalysisModule.AnalysisProvider;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptService;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.watcher.ResourceWatcherService;
 
-public class SynonymPlugin extends Plugin implements AnalysisPlugin {
+public class SynonymPlugin extends Plugin implements AnalysisPlugin, ActionPlugin {
 
     private final PluginComponent pluginComponent = new PluginComponent();
 
+    private final SynonymStatsRegistry statsRegistry = new SynonymStatsRegistry();
+
     @Override
     public Collection<Class<? extends LifecycleComponent>> getGuiceServiceClasses() {
         return singletonList(SynonymAnalysisService.class);
@@ -50,6 +73,29 @@ public class SynonymPlugin extends Plugin implements AnalysisPlugin {
         return components;
     }
 
+    @Override
+    public List<Setting<?>> getSettings() {
+        return SynonymSlowLog.SETTINGS;
+    }
+
+    @Override
+    public void onIndexModule(final IndexModule indexModule) {
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexRemoved(final Index index, final IndexSettings indexSettings, final IndexRemovalReason reason) {
+                statsRegistry.remove(index);
+            }
+        });
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(final Settings settings, final RestController restController,
+            final ClusterSettings clusterSettings, final IndexScopedSettings indexScopedSettings, final SettingsFilter settingsFilter,
+            final IndexNameExpressionResolver indexNameExpressionResolver, final Supplier<DiscoveryNodes> nodesInCluster) {
+        return asList(new RestSynonymStatsAction(settings, restController, statsRegistry),
+                new RestSynonymProfileAction(settings, restController, pluginComponent::getIndicesService));
+    }
+
     @Override
     public Map<String, AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
         final Map<String, AnalysisProvider<TokenFilterFactory>> extra = new HashMap<>();
@@ -58,7 +104,8 @@ public class SynonymPlugin extends Plugin implements AnalysisPlugin {
             @Override
             public TokenFilterFactory get(final IndexSettings indexSettings, final Environment environment, final String name, final Settings settings)
                     throws IOException {
-                return new SynonymTokenFilterFactory(indexSettings, environment, name, settings, pluginComponent.getAnalysisRegistry());
+                return new SynonymTokenFilterFactory(indexSettings, environment, name, settings, pluginComponent.getAnalysisRegistry(),
+                        statsRegistry);
             }
 
             @Override
@@ -71,13 +118,17 @@ public class SynonymPlugin extends Plugin implements AnalysisPlugin {
 
     @Override
     public Map<String, AnalysisProvider<TokenizerFactory>> getTokenizers() {
-        return singletonMap("ngram_synonym", NGramSynonymTokenizerFactory::new);
+        return singletonMap("ngram_synonym",
+                (indexSettings, environment, name, settings) -> new NGramSynonymTokenizerFactory(indexSettings, environment, name,
+                        settings, statsRegistry));
     }
 
     public static class PluginComponent {
 
         private AnalysisRegistry analysisRegistry;
 
+        private IndicesService indicesService;
+
         public AnalysisRegistry getAnalysisRegistry() {
             return analysisRegistry;
         }
@@ -86,5 +137,13 @@ public class SynonymPlugin extends Plugin implements AnalysisPlugin {
             this.analysisRegistry = analysisRegistry;
         }
 
+        public IndicesService getIndicesService() {
+            return indicesService;
+        }
+
+        public void setIndicesService(final IndicesService indicesService) {
+            this.indicesService = indicesService;
+        }
+
     }
 }
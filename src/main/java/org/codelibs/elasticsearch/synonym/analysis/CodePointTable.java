@@ -0,0 +1,59 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Maps code points to non-negative values, e.g. the first code points of the dictionary entries to their root
+ * transitions. BMP code points go through a two-level page table, so a lookup takes two array reads; the others are
+ * binary searched. Values are put in increasing order of code points, before the table is shared.
+ */
+final class CodePointTable {
+
+    private static final int PAGE_BITS = 8;
+
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private final int[][] pages = new int[0x10000 >>> PAGE_BITS][];
+
+    private int[] supplementaryCodePoints = new int[0];
+
+    private int[] supplementaryValues = new int[0];
+
+    private int supplementaryCount;
+
+    void put(final int codePoint, final int value) {
+        if (codePoint < 0x10000) {
+            final int page = codePoint >>> PAGE_BITS;
+            if (pages[page] == null) {
+                pages[page] = new int[1 << PAGE_BITS];
+                Arrays.fill(pages[page], -1);
+            }
+            pages[page][codePoint & PAGE_MASK] = value;
+            return;
+        }
+        if (supplementaryCount > 0 && supplementaryCodePoints[supplementaryCount - 1] >= codePoint) {
+            throw new IllegalArgumentException("Code points must be put in increasing order: " + codePoint);
+        }
+        if (supplementaryCount == supplementaryCodePoints.length) {
+            supplementaryCodePoints = ArrayUtil.grow(supplementaryCodePoints, supplementaryCount + 1);
+            supplementaryValues = ArrayUtil.grow(supplementaryValues, supplementaryCount + 1);
+        }
+        supplementaryCodePoints[supplementaryCount] = codePoint;
+        supplementaryValues[supplementaryCount] = value;
+        supplementaryCount++;
+    }
+
+    /**
+     * Returns the value of the code point, or -1 if none was put.
+     */
+    int get(final int codePoint) {
+        if (codePoint < 0x10000) {
+            final int[] page = pages[codePoint >>> PAGE_BITS];
+            return page == null ? -1 : page[codePoint & PAGE_MASK];
+        }
+        final int index = Arrays.binarySearch(supplementaryCodePoints, 0, supplementaryCount, codePoint);
+        return index < 0 ? -1 : supplementaryValues[index];
+    }
+}
@@ -0,0 +1,225 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.nio.Buffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The code points splitting blocks in {@link NGramSynonymTokenizer}.
+ * Literal characters and delimiter classes are compiled once into a bitset for BMP characters
+ * and a range table for supplementary ones, so a check takes constant time.
+ *
+ * <p>A delimiter class is one of:</p>
+ * <ul>
+ * <li>{@code category:Pd} - a Unicode general category, or a major class such as {@code category:P}</li>
+ * <li>{@code script:Han} - a Unicode script</li>
+ * <li>{@code range:U+3000-U+303F} - a range of code points, in hex</li>
+ * <li>{@code regex:[\p{Punct}\s]} - a regular expression matching one code point</li>
+ * </ul>
+ */
+public final class Delimiters {
+
+    private static final String[] CATEGORY_NAMES = new String[Character.FINAL_QUOTE_PUNCTUATION + 1];
+
+    static {
+        CATEGORY_NAMES[Character.UNASSIGNED] = "Cn";
+        CATEGORY_NAMES[Character.UPPERCASE_LETTER] = "Lu";
+        CATEGORY_NAMES[Character.LOWERCASE_LETTER] = "Ll";
+        CATEGORY_NAMES[Character.TITLECASE_LETTER] = "Lt";
+        CATEGORY_NAMES[Character.MODIFIER_LETTER] = "Lm";
+        CATEGORY_NAMES[Character.OTHER_LETTER] = "Lo";
+        CATEGORY_NAMES[Character.NON_SPACING_MARK] = "Mn";
+        CATEGORY_NAMES[Character.ENCLOSING_MARK] = "Me";
+        CATEGORY_NAMES[Character.COMBINING_SPACING_MARK] = "Mc";
+        CATEGORY_NAMES[Character.DECIMAL_DIGIT_NUMBER] = "Nd";
+        CATEGORY_NAMES[Character.LETTER_NUMBER] = "Nl";
+        CATEGORY_NAMES[Character.OTHER_NUMBER] = "No";
+        CATEGORY_NAMES[Character.SPACE_SEPARATOR] = "Zs";
+        CATEGORY_NAMES[Character.LINE_SEPARATOR] = "Zl";
+        CATEGORY_NAMES[Character.PARAGRAPH_SEPARATOR] = "Zp";
+        CATEGORY_NAMES[Character.CONTROL] = "Cc";
+        CATEGORY_NAMES[Character.FORMAT] = "Cf";
+        CATEGORY_NAMES[Character.PRIVATE_USE] = "Co";
+        CATEGORY_NAMES[Character.SURROGATE] = "Cs";
+        CATEGORY_NAMES[Character.DASH_PUNCTUATION] = "Pd";
+        CATEGORY_NAMES[Character.START_PUNCTUATION] = "Ps";
+        CATEGORY_NAMES[Character.END_PUNCTUATION] = "Pe";
+        CATEGORY_NAMES[Character.CONNECTOR_PUNCTUATION] = "Pc";
+        CATEGORY_NAMES[Character.OTHER_PUNCTUATION] = "Po";
+        CATEGORY_NAMES[Character.MATH_SYMBOL] = "Sm";
+        CATEGORY_NAMES[Character.CURRENCY_SYMBOL] = "Sc";
+        CATEGORY_NAMES[Character.MODIFIER_SYMBOL] = "Sk";
+        CATEGORY_NAMES[Character.OTHER_SYMBOL] = "So";
+        CATEGORY_NAMES[Character.INITIAL_QUOTE_PUNCTUATION] = "Pi";
+        CATEGORY_NAMES[Character.FINAL_QUOTE_PUNCTUATION] = "Pf";
+    }
+
+    private final long[] bmpBits = new long[0x10000 >>> 6];
+
+    // sorted, disjoint ranges of supplementary code points, both ends inclusive
+    private final int[] rangeStarts;
+
+    private final int[] rangeEnds;
+
+    private Delimiters(final IntPredicate predicate) {
+        for (int c = 0; c < 0x10000; c++) {
+            if (predicate.test(c)) {
+                bmpBits[c >>> 6] |= 1L << c;
+            }
+        }
+        final List<int[]> ranges = new ArrayList<>();
+        int start = -1;
+        for (int c = 0x10000; c <= Character.MAX_CODE_POINT + 1; c++) {
+            final boolean delimiter = c <= Character.MAX_CODE_POINT && predicate.test(c);
+            if (delimiter && start < 0) {
+                start = c;
+            } else if (!delimiter && start >= 0) {
+                ranges.add(new int[] { start, c - 1 });
+                start = -1;
+            }
+        }
+        rangeStarts = new int[ranges.size()];
+        rangeEnds = new int[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            rangeStarts[i] = ranges.get(i)[0];
+            rangeEnds[i] = ranges.get(i)[1];
+        }
+    }
+
+    /**
+     * Compiles the literal delimiter characters and the delimiter classes.
+     */
+    public static Delimiters compile(final String literals, final List<String> classes) {
+        IntPredicate predicate = c -> literals.indexOf(c) >= 0;
+        if (classes != null) {
+            for (final String spec : classes) {
+                predicate = predicate.or(parse(spec));
+            }
+        }
+        return new Delimiters(predicate);
+    }
+
+    public static Delimiters of(final String literals) {
+        return compile(literals, null);
+    }
+
+    public boolean contains(final int c) {
+        if (c < 0x10000) {
+            return (bmpBits[c >>> 6] & (1L << c)) != 0;
+        }
+        int low = 0;
+        int high = rangeStarts.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (c < rangeStarts[mid]) {
+                high = mid - 1;
+            } else if (c > rangeEnds[mid]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a supplementary code point can be a delimiter
+     */
+    public boolean hasSupplementary() {
+        return rangeStarts.length > 0;
+    }
+
+    private static IntPredicate parse(final String spec) {
+        final int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Invalid delimiter class [" + spec + "]. It must be category:, script:, range: or regex:.");
+        }
+        final String type = spec.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        final String value = spec.substring(colon + 1).trim();
+        switch (type) {
+        case "category":
+            return parseCategory(value);
+        case "script":
+            try {
+                final Character.UnicodeScript script = Character.UnicodeScript.forName(value);
+                return c -> Character.UnicodeScript.of(c) == script;
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown script [" + value + "].", e);
+            }
+        case "range":
+            return parseRange(value);
+        case "regex":
+            return parseRegex(value);
+        default:
+            throw new IllegalArgumentException("Invalid delimiter class [" + spec + "]. It must be category:, script:, range: or regex:.");
+        }
+    }
+
+    private static IntPredicate parseCategory(final String value) {
+        final boolean[] types = new boolean[CATEGORY_NAMES.length];
+        boolean found = false;
+        for (int type = 0; type < CATEGORY_NAMES.length; type++) {
+            final String name = CATEGORY_NAMES[type];
+            if (name != null && (name.equals(value) || value.length() == 1 && name.charAt(0) == value.charAt(0))) {
+                types[type] = true;
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new IllegalArgumentException("Unknown general category [" + value + "].");
+        }
+        return c -> types[Character.getType(c)];
+    }
+
+    private static IntPredicate parseRange(final String value) {
+        final int dash = value.indexOf('-', 1);
+        try {
+            final int start = parseCodePoint(dash < 0 ? value : value.substring(0, dash));
+            final int end = dash < 0 ? start : parseCodePoint(value.substring(dash + 1));
+            if (start > end || end > Character.MAX_CODE_POINT) {
+                throw new IllegalArgumentException("Invalid range [" + value + "].");
+            }
+            return c -> c >= start && c <= end;
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid range [" + value + "].", e);
+        }
+    }
+
+    private static int parseCodePoint(final String value) {
+        final String hex = value.trim();
+        if (hex.startsWith("U+") || hex.startsWith("u+")) {
+            return Integer.parseInt(hex.substring(2), 16);
+        }
+        return Integer.parseInt(hex, 16);
+    }
+
+    private static IntPredicate parseRegex(final String value) {
+        final Matcher matcher;
+        try {
+            matcher = Pattern.compile(value).matcher("");
+        } catch (final PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid regex [" + value + "].", e);
+        }
+        // only used while compiling, by one thread
+        final char[] chars = new char[2];
+        final CharBuffer buffer = CharBuffer.wrap(chars);
+        return c -> {
+            // through Buffer, as the CharBuffer overrides of JDK 9 are missing on JDK 8
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit(Character.toChars(c, chars, 0));
+            return matcher.reset(buffer).matches();
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Delimiters[bmp=" + Arrays.stream(bmpBits).map(Long::bitCount).sum() + ", ranges=" + rangeStarts.length + "]";
+    }
+}
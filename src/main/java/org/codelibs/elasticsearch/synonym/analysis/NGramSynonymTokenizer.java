@@ -18,21 +18,14 @@ package org.codelibs.elasticsearch.synonym.analysis;
  */
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.PriorityQueue;
 
 import org.apache.lucene.analysis.Tokenizer;
-import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.CharsRef;
-import org.apache.lucene.util.UnicodeUtil;
-import org.apache.lucene.util.fst.FST;
 
 // https://issues.apache.org/jira/browse/LUCENE-5252
 public final class NGramSynonymTokenizer extends Tokenizer {
@@ -41,33 +34,109 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
     public static final String DEFAULT_DELIMITERS = " 　\t\n\r";
 
+    public enum Mode {
+        /** Every n-gram, for indexing. */
+        INDEX,
+        /**
+         * The n-grams of max_gram size covering each segment with as few tokens as possible, for phrase queries.
+         * The positions are the same as in the index mode.
+         */
+        SEARCH,
+        /**
+         * The prefix grams of each block, stacked on one position, and the prefix grams of the synonyms of
+         * the dictionary entries which are prefixes of the block, for search-as-you-type.
+         */
+        EDGE
+    }
+
     static final int BUFFER_SIZE = 4096;
 
-    private final int n;
+    static final int DEFAULT_WINDOW_SIZE = 4 * BUFFER_SIZE;
+
+    /** Longer runs of word chars are split in the mixed script mode. */
+    static final int MAX_WORD_LENGTH = 255;
+
+    // gram sizes; every offset of a segment gets the grams of all sizes in the range, stacked on one position
+    private final int minGram;
 
-    private final String delimiters;
+    private final int maxGram;
+
+    private final Delimiters delimiters;
 
     private final boolean expand;
 
-    private final boolean ignoreCase;
+    private final boolean searchMode;
+
+    private final boolean edgeMode;
+
+    // folds the code points looked up in the dictionary
+    private final SynonymNormalizer matchNormalizer;
+
+    // folds the block text, if the normalization profile applies to the emitted text
+    private final SynonymNormalizer textNormalizer;
 
     private final SynonymLoader synonymLoader;
 
+    private final int maxExpansionsPerMatch;
+
+    private final int maxSynonymTokensPerDoc;
+
+    private final SynonymStats stats;
+
+    private int synonymTokenCount;
+
+    // the short grams next to synonyms
+    private boolean emitPrevBoundary = true;
+
+    private boolean emitAfterBoundary = true;
+
+    private int maxBoundaryGram = Integer.MAX_VALUE;
+
+    // emits runs of Latin letters and digits as words, and n-grams only for the other chars
+    private boolean mixedScript;
+
+    // token counts of the current stream, reported to the stats at the end
+    private int tokenCount;
+
+    private int boundaryTokenCount;
+
+    private int skippedBoundaryTokenCount;
+
     private long lastModified;
 
-    private SynonymMap synonymMap = null;
+    // JFR event of the current stream, or null
+    private Object analysisEvent;
+
+    // dictionary lookups and automaton transitions since creation, for profiling
+    private long lookupCount;
+
+    private long arcCount;
+
+    private SynonymSlowLog slowLog;
 
-    private FST.Arc<BytesRef> scratchArc;
+    private SynonymEvents events = SynonymEvents.INSTANCE;
 
-    private FST<BytesRef> fst;
+    // start of the current stream when timed for the slowlog, or -1
+    private long slowLogStart = -1;
 
-    private FST.BytesReader fstReader;
+    private StringBuilder slowLogSource;
 
-    private final BytesRef scratchBytes = new BytesRef();
+    // chars read from the input of the current stream, for the slowlog and JFR
+    private int inputLength;
 
-    private final CharsRef scratchChars = new CharsRef();
+    private SynonymDictionary synonymDictionary = null;
 
-    private int longestMatchEndOffset;
+    private SynonymAutomaton automaton;
+
+    // sampled per-rule hit counting; null when disabled
+    private SynonymRuleHits ruleHits;
+
+    private int ruleSampleCount;
+
+    // char offsets of the last code points read by the automaton, by code point count
+    private int[] codePointOffsets = new int[16];
+
+    private final BytesRef matchOutput = new BytesRef();
 
     private int ch;
 
@@ -77,7 +146,25 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
     private int readBufferLen;
 
-    StringBuilder block;
+    // chars of a block kept in memory; a longer block is read and tokenized window by window
+    int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private int windowCapacity;
+
+    // number of chars the longest dictionary entry can span
+    private int maxKeyLength;
+
+    // the chars of the current block from bufferStart up to bufferEnd, in offsets from the block start
+    private char[] blockChars = new char[BUFFER_SIZE];
+
+    // folded copy of blockChars, for the originals of synonyms if the match normalizer is not empty
+    private char[] keyChars = new char[BUFFER_SIZE];
+
+    private int bufferStart;
+
+    private int bufferEnd;
+
+    boolean blockComplete = true;
 
     int blkStart;
 
@@ -85,11 +172,31 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
     private int finalOffset;
 
-    private final PriorityQueue<MyToken> queue;
+    private final NGramTokenQueue queue;
+
+    // tokens added later to the queue start at this offset or after it
+    private int tokenLimit;
+
+    private boolean lookupSynonyms;
+
+    // the next offset to look up in the dictionary
+    private int scanOffset;
 
-    private MyToken prevToken;
+    // start of the n-grams after the last synonym
+    private int segmentStart;
 
-    private final List<MyToken> synonyms;
+    // start of the next n-gram in that segment
+    private int gramUpto;
+
+    private boolean afterSynonymProduced;
+
+    // positions of the index mode not taken by the search mode, added to the next position
+    private int skippedPositions;
+
+    // end of the last synonym whose after-synonym tokens are not added yet, or -1
+    private int pendingSynonymEnd;
+
+    private final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
 
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
 
@@ -99,10 +206,36 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
     protected NGramSynonymTokenizer(final int n, final String delimiters,
             final boolean expand, final boolean ignoreCase, final SynonymLoader synonymLoader) {
-        this.n = n;
+        this(n, delimiters, expand, SynonymNormalizer.forMatching(ignoreCase), synonymLoader, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, new SynonymStats());
+    }
+
+    protected NGramSynonymTokenizer(final int n, final String delimiters,
+            final boolean expand, final SynonymNormalizer normalizer, final SynonymLoader synonymLoader,
+            final int maxExpansionsPerMatch, final int maxSynonymTokensPerDoc, final SynonymStats stats) {
+        this(n, n, Delimiters.of(delimiters), expand, Mode.INDEX, normalizer, synonymLoader, maxExpansionsPerMatch,
+                maxSynonymTokensPerDoc, stats);
+    }
+
+    protected NGramSynonymTokenizer(final int minGram, final int maxGram, final Delimiters delimiters,
+            final boolean expand, final Mode mode, final SynonymNormalizer normalizer, final SynonymLoader synonymLoader,
+            final int maxExpansionsPerMatch, final int maxSynonymTokensPerDoc, final SynonymStats stats) {
+        this.minGram = minGram;
+        this.maxGram = maxGram;
+        this.searchMode = mode == Mode.SEARCH;
+        this.edgeMode = mode == Mode.EDGE;
+        this.maxExpansionsPerMatch = maxExpansionsPerMatch;
+        this.maxSynonymTokensPerDoc = maxSynonymTokensPerDoc;
+        this.stats = stats;
         this.delimiters = delimiters;
         this.expand = expand;
-        this.ignoreCase = ignoreCase;
+        if (normalizer.isNormalizeText()) {
+            this.matchNormalizer = SynonymNormalizer.NONE;
+            this.textNormalizer = normalizer;
+        } else {
+            this.matchNormalizer = normalizer;
+            this.textNormalizer = null;
+        }
         if (synonymLoader != null) {
             if (synonymLoader.isReloadable()) {
                 this.synonymLoader = synonymLoader;
@@ -111,273 +244,659 @@ public final class NGramSynonymTokenizer extends Tokenizer {
                 this.synonymLoader = null;
                 this.lastModified = System.currentTimeMillis();
             }
-            synonymMap = synonymLoader.getSynonymMap();
-            if (synonymMap != null && synonymMap.fst == null) {
-                this.synonymMap = null;
-            }
+            synonymDictionary = synonymLoader.getSynonymDictionary();
         } else {
             this.synonymLoader = null;
         }
-        if (synonymMap != null) {
-            this.fst = synonymMap.fst;
-            this.fstReader = fst.getBytesReader();
-            scratchArc = new FST.Arc<>();
+        if (synonymDictionary != null) {
+            setSynonymDictionary(synonymDictionary);
         }
 
         ch = 0;
         readBuffer = new char[BUFFER_SIZE];
         readBufferIndex = BUFFER_SIZE;
         readBufferLen = 0;
-        block = new StringBuilder();
         nextBlkStart = 0;
-        queue = new PriorityQueue<>(100,
-                new MyTokensComparator());
-        this.synonyms = new ArrayList<>();
+        queue = new NGramTokenQueue();
+    }
+
+    /**
+     * Sets which of the grams shorter than min_gram are added before and after a synonym, if expand is true.
+     * They let a query match text next to a synonym, at the cost of more tokens.
+     *
+     * @param emitPrev whether to add the grams ending at the start of a synonym
+     * @param emitAfter whether to add the grams starting at the end of a synonym
+     * @param maxGram the longest of these grams
+     */
+    public void setBoundaryGrams(final boolean emitPrev, final boolean emitAfter, final int maxGram) {
+        this.emitPrevBoundary = emitPrev;
+        this.emitAfterBoundary = emitAfter;
+        this.maxBoundaryGram = maxGram;
+    }
+
+    /**
+     * Sets the mixed script mode: a run of Latin letters or digits is emitted as one word token, and only the
+     * other chars (e.g. CJK) are n-grammed. Synonyms match only whole words in such runs.
+     */
+    public void setMixedScript(final boolean mixedScript) {
+        this.mixedScript = mixedScript;
+    }
+
+    /**
+     * Sets the slowlog to report streams taking longer than its thresholds to, or null.
+     */
+    public void setSlowLog(final SynonymSlowLog slowLog) {
+        this.slowLog = slowLog;
+    }
+
+    /**
+     * Sets the JFR events of the streams, e.g. ones doing nothing for profiling.
+     */
+    void setEvents(final SynonymEvents events) {
+        this.events = events;
+    }
+
+    /**
+     * Returns the number of dictionary lookups, one per scan of the automaton, since this tokenizer was created.
+     */
+    public long getLookupCount() {
+        return lookupCount;
+    }
+
+    /**
+     * Returns the number of automaton transitions taken since this tokenizer was created.
+     */
+    public long getArcCount() {
+        return arcCount;
     }
 
     @Override
     public boolean incrementToken() throws IOException {
         while (true) {
-            final MyToken nextToken = getNextUniqueToken(queue, prevToken);
-            if (nextToken == null) {
-                getNextBlock();
-                if (block.length() == 0) {
-                    return false;
+            final int nextToken = queue.pollUnique();
+            if (nextToken == -1) {
+                if (blockComplete) {
+                    if (!getNextBlock()) {
+                        return false;
+                    }
+                } else {
+                    readNextWindow();
                 }
-                consultDictionary();
-                tokenizeWholeBlock();
+                tokenizeWindow();
             } else {
-                prevToken = nextToken;
                 clearAttributes();
-                termAttr.append(nextToken.word);
-                finalOffset = correctOffset(blkStart + nextToken.endOffset);
+                termAttr.copyBuffer(queue.getChars(nextToken), queue.getOffset(nextToken), queue.getLength(nextToken));
+                finalOffset = correctOffset(blkStart + queue.getEndOffset(nextToken));
                 offsetAttr.setOffset(correctOffset(blkStart
-                        + nextToken.startOffset), finalOffset);
-                posIncAttr.setPositionIncrement(nextToken.posInc);
+                        + queue.getStartOffset(nextToken)), finalOffset);
+                posIncAttr.setPositionIncrement(queue.getPosInc(nextToken));
+                tokenCount++;
                 return true;
             }
         }
     }
 
-    static MyToken getNextUniqueToken(final PriorityQueue<MyToken> que, final MyToken prev) {
-        while (true) {
-            final MyToken token = que.poll();
-            if (token == null) {
-                return null;
+    /*
+     * Adds the tokens which do not depend on the chars not read yet, so a block gives the same tokens
+     * whether it is tokenized at once or window by window. Synonyms are looked up only where the longest
+     * entry fits in the window, and the tokens around the last synonym wait until the next one is known.
+     */
+    void tokenizeWindow() throws IOException {
+        if (edgeMode) {
+            tokenizeEdge();
+            return;
+        }
+        final int limit = blockComplete ? bufferEnd : bufferEnd - maxKeyLength;
+        if (lookupSynonyms) {
+            consultDictionary(limit);
+        } else if (scanOffset < limit) {
+            scanOffset = limit;
+        }
+
+        if (blockComplete) {
+            if (pendingSynonymEnd >= 0) {
+                processPendingAfterSynonym(bufferEnd);
+            }
+            tokenizePartialBlock(bufferEnd, true);
+            tokenLimit = Integer.MAX_VALUE;
+        } else {
+            // the next synonym starts at scanOffset or after
+            if (pendingSynonymEnd >= 0 && scanOffset >= pendingSynonymEnd + minGram - 1) {
+                processPendingAfterSynonym(scanOffset);
             }
-            if (prev == null || !prev.identical(token)) {
-                return token;
+            if (pendingSynonymEnd < 0) {
+                tokenizePartialBlock(scanOffset, false);
+            }
+            // the last gram of a segment in the search mode may start before gramUpto
+            tokenLimit = Math.min(scanOffset - minGram + 1, searchMode ? gramUpto - maxGram + 1 : gramUpto);
+            if (pendingSynonymEnd >= 0) {
+                tokenLimit = Math.min(tokenLimit, pendingSynonymEnd);
+            }
+            if (mixedScript) {
+                // keeps the char before the next synonym, to check the word boundary
+                tokenLimit = Math.min(tokenLimit, scanOffset - 1);
             }
         }
+        queue.setLimit(tokenLimit);
     }
 
-    void consultDictionary() throws IOException {
-        if (synonymMap == null) {
-            return;
-        }
-        synonyms.clear();
-        final char[] key = block.toString().toCharArray();
-        for (int start = 0; start < block.length();) {
-            final BytesRef matchOutput = getLongestMatchOutput(key, start);
-            if (matchOutput == null) {
-                start++;
-                continue;
+    // the first window of a block holds the longest grams and entries, so the following ones are only skipped
+    private void tokenizeEdge() {
+        if (bufferStart == 0) {
+            final int length = bufferEnd;
+            if (length < minGram) {
+                addBlockToken(0, length, 1);
+            } else {
+                for (int end = minGram; end <= Math.min(maxGram, length); end++) {
+                    addBlockToken(0, end, end == minGram ? 1 : 0);
+                }
             }
 
-            synonyms.add(new MyToken(key, start, longestMatchEndOffset, 1,
-                    matchOutput.clone(), ignoreCase));
-            start = longestMatchEndOffset;
+            if (lookupSynonyms) {
+                lookupCount++;
+                int state = 0;
+                int index = 0;
+                while (index < length) {
+                    final int codePoint = Character.codePointAt(blockChars, index, length);
+                    index += Character.charCount(codePoint);
+                    arcCount++;
+                    state = automaton.getChild(state, matchNormalizer.fold(codePoint));
+                    if (state < 0) {
+                        break;
+                    }
+                    if ((index >= minGram || blockComplete && index == length) && automaton.getMatch(state) == state) {
+                        countRuleHit(state);
+                        // as in the other modes, synonyms are only emitted with expand
+                        if (!expand) {
+                            continue;
+                        }
+                        automaton.getOutput(state, matchOutput);
+                        addEdgeSynonyms(index, matchOutput);
+                        if (synonymTokenCount >= maxSynonymTokensPerDoc) {
+                            lookupSynonyms = false;
+                            break;
+                        }
+                    }
+                }
+            }
         }
+        tokenLimit = blockComplete ? Integer.MAX_VALUE : bufferEnd;
+        queue.setLimit(tokenLimit);
     }
 
-    BytesRef getLongestMatchOutput(final char[] src, final int start) throws IOException {
-        BytesRef pendingOutput = fst.outputs.getNoOutput();
-        fst.getFirstArc(scratchArc);
-        assert scratchArc.output == fst.outputs.getNoOutput();
-        BytesRef matchOutput = null;
-
-        int index = 0;
-        while (start + index < src.length) {
-            final int codePoint = Character.codePointAt(src, start + index,
-                    src.length);
-            if (fst.findTargetArc(ignoreCase ? Character.toLowerCase(codePoint)
-                    : codePoint, scratchArc, scratchArc, fstReader) == null) {
-                return matchOutput;
+    // adds the prefix grams of the synonyms of the block prefix ending at the given offset; all are at the position
+    // of the block, so a term already there, e.g. a prefix gram of the block or of a shorter match, is skipped
+    private void addEdgeSynonyms(final int end, final BytesRef output) {
+        bytesReader.reset(output.bytes, output.offset, output.length);
+        final int count = bytesReader.readVInt() >>> 1;
+        final char[] wordChars = synonymDictionary.getWordChars();
+        for (int i = 0; i < count; i++) {
+            final int wordId = bytesReader.readVInt();
+            if (i >= maxExpansionsPerMatch) {
+                stats.onMatchLimit();
+                break;
+            } else if (synonymTokenCount >= maxSynonymTokensPerDoc) {
+                break;
+            } else if (++synonymTokenCount == maxSynonymTokensPerDoc) {
+                stats.onDocLimit();
             }
-
-            pendingOutput = fst.outputs.add(pendingOutput, scratchArc.output);
-
-            if (scratchArc.isFinal()) {
-                matchOutput = fst.outputs.add(pendingOutput,
-                        scratchArc.nextFinalOutput);
-                longestMatchEndOffset = start + index
-                        + Character.charCount(codePoint);
+            final int wordOffset = synonymDictionary.getWordOffset(wordId);
+            final int wordLength = synonymDictionary.getWordLength(wordId);
+            if (wordLength < minGram) {
+                addEdgeSynonym(wordChars, wordOffset, wordLength, end, i + 1);
+            } else {
+                for (int length = minGram; length <= Math.min(maxGram, wordLength); length++) {
+                    addEdgeSynonym(wordChars, wordOffset, length, end, i + 1);
+                }
             }
+        }
+    }
 
-            index += Character.charCount(codePoint);
+    private void addEdgeSynonym(final char[] wordChars, final int wordOffset, final int length, final int end, final int seq) {
+        if (!queue.containsWord(wordChars, wordOffset, length)) {
+            queue.add(wordChars, wordOffset, length, 0, end, 0, seq);
         }
+    }
 
-        return matchOutput;
+    private void setSynonymDictionary(final SynonymDictionary dictionary) {
+        synonymDictionary = dictionary;
+        automaton = dictionary.getAutomaton();
+        ruleHits = stats.getRuleHits(dictionary);
+        maxKeyLength = 2 * dictionary.getMaxInputLength();
+        codePointOffsets = ArrayUtil.grow(codePointOffsets, dictionary.getMaxInputLength() + 1);
     }
 
-    void tokenizeWholeBlock() {
-        queue.clear();
-        int nextStart = 0;
-        final int end = block.length();
-        boolean afterSynonymProduced = false;
-        final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
-        for (int idx = 0; idx < synonyms.size(); idx++) {
-            final MyToken synonym = synonyms.get(idx);
-            tokenizePartialBlock(nextStart, synonym.startOffset,
-                    afterSynonymProduced);
-
-            // enqueue prev-synonym
-            if (expand) {
-                int limitOffset = 0;
-                if (idx > 0) {
-                    limitOffset = synonyms.get(idx - 1).endOffset;
+    /*
+     * Finds the synonyms starting before the limit in one pass of the automaton. The matches are the same as
+     * looking up the longest entry at each offset from left to right: the leftmost match is taken, the longest
+     * one at its start, and the search resumes at its end.
+     */
+    void consultDictionary(final int limit) {
+        final char[] src = blockChars;
+        final int length = bufferEnd - bufferStart;
+        final int ringSize = codePointOffsets.length;
+        int arcs = 0;
+        while (scanOffset < limit) {
+            if (synonymTokenCount >= maxSynonymTokensPerDoc) {
+                // the rest of the document is not matched once the synonym tokens are used up
+                lookupSynonyms = false;
+                scanOffset = limit;
+                break;
+            }
+            lookupCount++;
+            int state = 0;
+            int codePointCount = 0;
+            int matchStart = -1;
+            int matchEnd = -1;
+            int matchState = -1;
+            int index = scanOffset - bufferStart;
+            while (index < length) {
+                final int codePoint = Character.codePointAt(src, index, length);
+                codePointOffsets[codePointCount % ringSize] = index + bufferStart;
+                codePointCount++;
+                index += Character.charCount(codePoint);
+                arcs++;
+                state = automaton.step(state, matchNormalizer.fold(codePoint));
+
+                // a match found later starts at or after the longest prefix read now
+                final int depth = automaton.getDepth(state);
+                final int liveStart = depth == 0 ? index + bufferStart
+                        : codePointOffsets[(codePointCount - depth) % ringSize];
+                if (matchState >= 0 ? liveStart > matchStart : liveStart >= limit) {
+                    break;
+                }
+                for (int m = automaton.getMatch(state); m >= 0; m = automaton.getNextMatch(m)) {
+                    final int start = codePointOffsets[(codePointCount - automaton.getDepth(m)) % ringSize];
+                    if ((matchState < 0 || start <= matchStart)
+                            && (!mixedScript || isWordBoundary(start) && isWordBoundary(index + bufferStart))) {
+                        matchStart = start;
+                        matchEnd = index + bufferStart;
+                        matchState = m;
+                    }
                 }
-                processPrevSynonym(synonym.startOffset, limitOffset);
             }
 
-            queue.add(synonym);
-
-            // enqueue synonyms
-            if (expand) {
-                bytesReader.reset(synonym.output.bytes, synonym.output.offset,
-                        synonym.output.length);
-                final int code = bytesReader.readVInt();
-                final int count = code >>> 1;
-                for (int i = 0; i < count; i++) {
-                    synonymMap.words.get(bytesReader.readVInt(), scratchBytes);
-                    if (scratchChars.chars.length < scratchBytes.length) {
-                        scratchChars.chars = new char[scratchBytes.length];
-                    }
-                    scratchChars.length = UnicodeUtil.UTF8toUTF16(scratchBytes,
-                            scratchChars.chars);
-                    final String word = scratchChars.toString();
-                    int posInc = 0, seq = i + 1;
-                    if (synonym.word.equals(word)) {
-                        posInc = 1;
-                        seq = 0;
+            if (matchState < 0 || matchStart >= limit) {
+                scanOffset = limit;
+                break;
+            }
+            countRuleHit(matchState);
+            automaton.getOutput(matchState, matchOutput);
+            addSynonym(matchStart, matchEnd, matchOutput);
+            scanOffset = matchEnd;
+        }
+        arcCount += arcs;
+    }
+
+    private void countRuleHit(final int matchState) {
+        if (ruleHits != null && ++ruleSampleCount >= ruleHits.getSampleInterval()) {
+            ruleSampleCount = 0;
+            ruleHits.onHit(automaton.getEntry(matchState));
+        }
+    }
+
+    // adds the synonym found at [start, end) and the tokens before it
+    private void addSynonym(final int start, final int end, final BytesRef output) {
+        if (pendingSynonymEnd >= 0) {
+            processPendingAfterSynonym(start);
+        }
+        final int prevLimit = mixedScript ? getBoundaryLimit(start, segmentStart, -1) : segmentStart;
+        tokenizePartialBlock(start, true);
+
+        // enqueue prev-synonym
+        if (expand && !searchMode) {
+            processPrevSynonym(start, prevLimit);
+        }
+
+        final int offset = start - bufferStart;
+        final int length = end - start;
+        final char[] originalChars;
+        if (matchNormalizer.isEmpty()) {
+            originalChars = blockChars;
+        } else {
+            // the original is emitted in the same form as the dictionary entries
+            System.arraycopy(blockChars, offset, keyChars, offset, length);
+            matchNormalizer.fold(keyChars, offset, length);
+            originalChars = keyChars;
+        }
+        final int original = queue.add(originalChars, offset, length, start, end, nextPosition(1),
+                NGramTokenQueue.ORIGINAL_SEQ);
+
+        // enqueue synonyms
+        if (expand) {
+            bytesReader.reset(output.bytes, output.offset, output.length);
+            final int code = bytesReader.readVInt();
+            final int count = code >>> 1;
+            final char[] wordChars = synonymDictionary.getWordChars();
+            int added = 0;
+            for (int i = 0; i < count; i++) {
+                final int wordId = bytesReader.readVInt();
+                final int wordOffset = synonymDictionary.getWordOffset(wordId);
+                final int wordLength = synonymDictionary.getWordLength(wordId);
+                int posInc = 0, seq = i + 1;
+                if (queue.wordEquals(original, wordChars, wordOffset, wordLength)) {
+                    posInc = 1;
+                    seq = NGramTokenQueue.ORIGINAL_SEQ;
+                } else if (added >= maxExpansionsPerMatch) {
+                    // skip the remaining outputs in rule order
+                    stats.onMatchLimit();
+                    break;
+                } else if (synonymTokenCount >= maxSynonymTokensPerDoc) {
+                    break;
+                } else {
+                    added++;
+                    if (++synonymTokenCount == maxSynonymTokensPerDoc) {
+                        stats.onDocLimit();
                     }
-                    queue.add(new MyToken(word, synonym.startOffset,
-                            synonym.endOffset, posInc, seq));
                 }
+                queue.add(wordChars, wordOffset, wordLength, start,
+                        end, posInc, seq);
             }
 
-            // enqueue after-synonym
-            if (expand) {
-                int limitOffset = block.length();
-                if (idx < synonyms.size() - 1) {
-                    limitOffset = synonyms.get(idx + 1).startOffset;
-                }
-                afterSynonymProduced = processAfterSynonym(synonym.endOffset,
-                        limitOffset);
+            // the after-synonym tokens are added once the next synonym is known
+            if (!searchMode) {
+                pendingSynonymEnd = end;
             }
+        }
+
+        segmentStart = end;
+        gramUpto = end;
+    }
 
-            nextStart = synonym.endOffset;
+    // enqueue after-synonym, limited by the start of the next synonym
+    private void processPendingAfterSynonym(final int limitOffset) {
+        final int limit = mixedScript ? getBoundaryLimit(pendingSynonymEnd, limitOffset, 1) : limitOffset;
+        afterSynonymProduced = processAfterSynonym(pendingSynonymEnd, limit);
+        pendingSynonymEnd = -1;
+    }
+
+    /*
+     * Adds the n-grams of the segment after the last synonym, from gramUpto.
+     * If closed, the segment ends at endOffset. Otherwise it ends at endOffset or later,
+     * so only the offsets whose grams of all sizes end by endOffset are tokenized.
+     */
+    void tokenizePartialBlock(final int endOffset, final boolean closed) {
+        if (mixedScript) {
+            tokenizeRuns(endOffset, closed);
+        } else {
+            tokenizeSegment(endOffset, closed);
         }
-        tokenizePartialBlock(nextStart, end, afterSynonymProduced);
     }
 
-    void tokenizePartialBlock(final int startOffset, final int endOffset,
-            final boolean afterSynonymProduced) {
-        if (startOffset >= endOffset) {
-            return;
+    // tokenizes each run of word chars or other chars up to endOffset as a segment
+    private void tokenizeRuns(final int endOffset, final boolean closed) {
+        while (segmentStart < endOffset) {
+            final boolean word = isWordChar(blockChars[segmentStart - bufferStart]);
+            final int maxEnd = word ? Math.min(endOffset, segmentStart + MAX_WORD_LENGTH) : endOffset;
+            int runEnd = Math.max(gramUpto, segmentStart + 1);
+            while (runEnd < maxEnd && isWordChar(blockChars[runEnd - bufferStart]) == word) {
+                runEnd++;
+            }
+            final boolean runClosed = closed || runEnd < endOffset || runEnd - segmentStart == MAX_WORD_LENGTH && word;
+            if (word) {
+                if (!runClosed) {
+                    return;
+                }
+                addBlockToken(segmentStart, runEnd, afterSynonymProduced ? 0 : 1);
+            } else {
+                tokenizeSegment(runEnd, runClosed);
+                if (!runClosed) {
+                    return;
+                }
+            }
+            afterSynonymProduced = false;
+            segmentStart = runEnd;
+            gramUpto = runEnd;
         }
+    }
 
-        int posInc = afterSynonymProduced ? 0 : 1;
-        if (endOffset - startOffset < n) {
-            queue.add(new MyToken(block.substring(startOffset, endOffset),
-                    startOffset, endOffset, posInc));
+    // adds the n-grams of a segment, see tokenizePartialBlock
+    private void tokenizeSegment(final int endOffset, final boolean closed) {
+        if (endOffset - segmentStart < (searchMode ? maxGram : minGram)) {
+            if (closed && segmentStart < endOffset) {
+                addBlockToken(segmentStart, endOffset, afterSynonymProduced ? 0 : 1);
+                if (searchMode) {
+                    skippedPositions = Math.max(endOffset - minGram - segmentStart, 0);
+                }
+            }
+            return;
+        }
+        if (searchMode) {
+            tokenizeCovering(endOffset, closed);
             return;
         }
 
-        for (int i = startOffset; i + n <= endOffset; i++) {
-            queue.add(new MyToken(block.substring(i, i + n), i, i + n, posInc));
-            posInc = 1;
+        final int lastStart = closed ? endOffset - minGram : endOffset - maxGram;
+        for (; gramUpto <= lastStart; gramUpto++) {
+            int posInc = gramUpto == segmentStart && afterSynonymProduced ? 0 : 1;
+            final int maxEnd = Math.min(gramUpto + maxGram, endOffset);
+            for (int end = gramUpto + minGram; end <= maxEnd; end++) {
+                addBlockToken(gramUpto, end, posInc);
+                posInc = 0;
+            }
+        }
+    }
+
+    // adds the grams of max_gram size at every max_gram offsets; a closed segment ends with a gram ending at endOffset
+    private void tokenizeCovering(final int endOffset, final boolean closed) {
+        final int lastStart = endOffset - maxGram;
+        for (; gramUpto <= lastStart; gramUpto += maxGram) {
+            addBlockToken(gramUpto, gramUpto + maxGram, gramUpto == segmentStart ? 1 : maxGram);
+        }
+        if (closed) {
+            int lastGramStart = gramUpto - maxGram;
+            if (gramUpto < endOffset) {
+                // overlaps the previous gram; the index has a position per offset in between
+                addBlockToken(lastStart, endOffset, lastStart - lastGramStart);
+                lastGramStart = lastStart;
+            }
+            // the index has positions up to the last gram of min_gram size
+            skippedPositions = endOffset - minGram - lastGramStart;
+            gramUpto = endOffset;
         }
     }
 
     void processPrevSynonym(final int endOffset, final int limitOffset) {
-        int startOffset = endOffset - 1;
-        for (int len = 1; len < n && startOffset >= limitOffset; len++) {
-            queue.add(new MyToken(block.substring(startOffset, endOffset),
-                    startOffset, endOffset, 0));
-            startOffset--;
+        final int count = Math.min(minGram - 1, endOffset - limitOffset);
+        final int emitted = emitPrevBoundary ? Math.min(count, maxBoundaryGram) : 0;
+        for (int len = 1; len <= emitted; len++) {
+            addBlockToken(endOffset - len, endOffset, 0);
         }
+        boundaryTokenCount += emitted;
+        skippedBoundaryTokenCount += count - emitted;
     }
 
     boolean processAfterSynonym(final int startOffset, final int limitOffset) {
-        final int qSize = queue.size();
-        int endOffset = startOffset + 1;
-        int posInc = 1;
-        for (int len = 1; len < n && endOffset <= limitOffset; len++) {
-            queue.add(new MyToken(block.substring(startOffset, endOffset),
-                    startOffset, endOffset, posInc));
-            endOffset++;
-            posInc = 0;
+        final int count = Math.min(minGram - 1, limitOffset - startOffset);
+        final int emitted = emitAfterBoundary ? Math.min(count, maxBoundaryGram) : 0;
+        for (int len = 1; len <= emitted; len++) {
+            addBlockToken(startOffset, startOffset + len, len == 1 ? 1 : 0);
+        }
+        boundaryTokenCount += emitted;
+        skippedBoundaryTokenCount += count - emitted;
+        return emitted > 0;
+    }
+
+    /*
+     * Returns how far the chars next to a synonym at the given offset are not word chars, in the given direction,
+     * within the limit and the length of the boundary grams.
+     */
+    private int getBoundaryLimit(final int offset, final int limitOffset, final int direction) {
+        int boundary = offset;
+        for (int len = 1; len < minGram && boundary != limitOffset; len++) {
+            final int c = direction < 0 ? blockChars[boundary - 1 - bufferStart] : blockChars[boundary - bufferStart];
+            if (isWordChar(c)) {
+                break;
+            }
+            boundary += direction;
         }
-        return queue.size() > qSize;
+        return boundary;
+    }
+
+    // a synonym does not start or end inside a run of word chars
+    private boolean isWordBoundary(final int offset) {
+        if (offset == 0 || offset == bufferEnd) {
+            return true;
+        }
+        return !isWordChar(blockChars[offset - 1 - bufferStart]) || !isWordChar(blockChars[offset - bufferStart]);
+    }
+
+    static boolean isWordChar(final int c) {
+        if (c < 0x80) {
+            return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+        }
+        return Character.isDigit(c) || Character.isLetter(c) && Character.UnicodeScript.of(c) == Character.UnicodeScript.LATIN;
+    }
+
+    // refers to the chars of the current block without copying them
+    private void addBlockToken(final int startOffset, final int endOffset, final int posInc) {
+        queue.add(blockChars, startOffset - bufferStart, endOffset - startOffset, startOffset, endOffset,
+                nextPosition(posInc), NGramTokenQueue.UNUSED_SEQ);
+    }
+
+    private int nextPosition(final int posInc) {
+        if (posInc == 0 || skippedPositions == 0) {
+            return posInc;
+        }
+        final int result = posInc + skippedPositions;
+        skippedPositions = 0;
+        return result;
     }
 
     @Override
     public void end() throws IOException {
         super.end();
         offsetAttr.setOffset(finalOffset, finalOffset);
+        stats.onTokens(tokenCount, boundaryTokenCount, skippedBoundaryTokenCount);
+        events.endAnalysis(analysisEvent, "ngram_synonym", inputLength, tokenCount, synonymTokenCount);
+        analysisEvent = null;
+        if (slowLogStart >= 0) {
+            slowLog.onAnalysis(System.nanoTime() - slowLogStart, inputLength, tokenCount, slowLogSource);
+            slowLogStart = -1;
+        }
+        tokenCount = 0;
+        boundaryTokenCount = 0;
+        skippedBoundaryTokenCount = 0;
     }
 
     @Override
     public void reset() throws IOException {
         super.reset();
-        block.setLength(0);
-        prevToken = null;
+        queue.clear();
+        bufferStart = 0;
+        bufferEnd = 0;
+        blockComplete = true;
+        synonymTokenCount = 0;
+        skippedPositions = 0;
+        tokenCount = 0;
+        boundaryTokenCount = 0;
+        skippedBoundaryTokenCount = 0;
         readBufferIndex = BUFFER_SIZE;
         readBufferLen = 0;
+        inputLength = 0;
         ch = 0;
         blkStart = 0;
         nextBlkStart = 0;
+        analysisEvent = events.beginAnalysis();
+        if (slowLog != null && slowLog.isEnabled()) {
+            slowLogStart = System.nanoTime();
+            if (slowLogSource == null) {
+                slowLogSource = new StringBuilder();
+            }
+            slowLogSource.setLength(0);
+        } else {
+            slowLogStart = -1;
+        }
         if (synonymLoader != null && synonymLoader.isUpdate(lastModified)) {
+            final Object event = events.beginReload();
             lastModified = synonymLoader.getLastModified();
-            final SynonymMap map = synonymLoader.getSynonymMap();
-            if (map != null) {
-                synonymMap = map;
-                fst = synonymMap.fst;
-                if (fst == null) {
+            final SynonymDictionary dictionary = synonymLoader.getSynonymDictionary();
+            if (dictionary != null) {
+                if (dictionary.getFst() == null) {
                     throw new IllegalArgumentException("fst must be non-null");
                 }
-                fstReader = fst.getBytesReader();
-                scratchArc = new FST.Arc<>();
+                setSynonymDictionary(dictionary);
                 clearAttributes();
             }
+            events.endReload(event, "ngram_synonym", lastModified);
         }
     }
 
     boolean getNextBlock() throws IOException {
         blkStart = nextBlkStart;
-        block.setLength(0);
-        prevToken = null;
+        queue.clear();
+        bufferStart = 0;
+        bufferEnd = 0;
+        blockComplete = true;
         while (true) {
             if (ch != -1) {
-                ch = readCharFromBuffer();
+                ch = readCodePoint();
             }
             if (ch == -1) {
-                break;
+                return false;
             } else if (!isDelimiter(ch)) {
-                block.append((char) ch);
-            } else if (block.length() > 0) {
                 break;
             } else {
-                blkStart++;
+                blkStart += Character.charCount(ch);
             }
         }
-        if (block.length() == 0) {
-            return false;
+
+        // two more chars, not to split a surrogate pair between windows
+        windowCapacity = Math.max(windowSize, 2 * (maxKeyLength + maxGram + (mixedScript ? MAX_WORD_LENGTH : 0)));
+        blockChars = ArrayUtil.grow(blockChars, windowCapacity + 2);
+        if (!matchNormalizer.isEmpty()) {
+            keyChars = ArrayUtil.grow(keyChars, windowCapacity + 2);
         }
+        bufferEnd = Character.toChars(ch, blockChars, 0);
+        blockComplete = false;
+        readBlock(0);
+
+        lookupSynonyms = synonymDictionary != null && synonymTokenCount < maxSynonymTokensPerDoc;
+        scanOffset = 0;
+        segmentStart = 0;
+        gramUpto = 0;
+        afterSynonymProduced = false;
+        pendingSynonymEnd = -1;
         return true;
     }
 
+    // drops the chars before the tokens left in the queue and reads the following ones
+    private void readNextWindow() throws IOException {
+        final int shift = tokenLimit - bufferStart;
+        final int length = bufferEnd - tokenLimit;
+        System.arraycopy(blockChars, shift, blockChars, 0, length);
+        queue.shiftWords(blockChars, shift);
+        if (!matchNormalizer.isEmpty()) {
+            System.arraycopy(keyChars, shift, keyChars, 0, length);
+            queue.shiftWords(keyChars, shift);
+        }
+        bufferStart = tokenLimit;
+        readBlock(bufferEnd);
+    }
+
+    // reads the chars of the current block until the window is full or the block ends
+    private void readBlock(final int readStart) throws IOException {
+        while (bufferEnd - bufferStart < windowCapacity || bufferEnd - bufferStart == windowCapacity
+                && Character.isHighSurrogate(blockChars[windowCapacity - 1])) {
+            if (ch != -1) {
+                ch = readCodePoint();
+            }
+            if (ch == -1 || isDelimiter(ch)) {
+                blockComplete = true;
+                break;
+            }
+            bufferEnd += Character.toChars(ch, blockChars, bufferEnd - bufferStart);
+        }
+        if (textNormalizer != null) {
+            textNormalizer.fold(blockChars, readStart - bufferStart, bufferEnd - readStart);
+        }
+    }
+
+    // for tests
+    String getBlock() {
+        return new String(blockChars, 0, bufferEnd - bufferStart);
+    }
+
     int readCharFromBuffer() throws IOException {
         if (readBufferIndex >= readBufferLen) {
             readBufferLen = input.read(readBuffer);
@@ -385,148 +904,36 @@ public final class NGramSynonymTokenizer extends Tokenizer {
                 return -1;
             }
             readBufferIndex = 0;
+            inputLength += readBufferLen;
+            if (slowLogStart >= 0 && slowLogSource.length() < slowLog.getMaxSourceCharsToLog()) {
+                slowLogSource.append(readBuffer, 0, Math.min(readBufferLen, slowLog.getMaxSourceCharsToLog() - slowLogSource.length()));
+            }
         }
         final int c = readBuffer[readBufferIndex++];
         nextBlkStart++;
         return c;
     }
 
-    boolean isDelimiter(final int c) {
-        return delimiters.indexOf(c) >= 0;
-    }
-
-    static class MyToken {
-        final String word;
-
-        final int startOffset, endOffset, posInc, seq;
-
-        final BytesRef output;
-
-        public MyToken(final char[] key, final int startOffset, final int endOffset, final int posInc,
-                final BytesRef output, final boolean ignoreCase) {
-            this.word = ignoreCase ? new String(key, startOffset, endOffset
-                    - startOffset).toLowerCase() : new String(key, startOffset,
-                    endOffset - startOffset);
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-            this.posInc = posInc;
-            this.output = output;
-            this.seq = 0; // zero for seq means that this token is the original of synonyms
-        }
-
-        public MyToken(final String word, final int startOffset, final int endOffset, final int posInc) {
-            this(word, startOffset, endOffset, posInc, Integer.MAX_VALUE); // Integer.MAX_VALUE for seq means unused
-        }
-
-        public MyToken(final String word, final int startOffset, final int endOffset, final int posInc,
-                final int seq) {
-            this.word = word;
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-            this.posInc = posInc;
-            this.output = null; // means unused
-            this.seq = seq;
-        }
-
-        public boolean identical(final MyToken o) {
-            if (o.posInc != 0) {
-                return false;
-            }
-            if (!word.equals(o.word)) {
-                return false;
-            }
-            if (startOffset != o.startOffset) {
-                return false;
-            }
-            if (endOffset != o.endOffset) {
-                return false;
-            }
-            return true;
-        }
-
-        @Override
-        public String toString() {
-            final StringBuilder sb = new StringBuilder();
-            sb.append(word).append(',').append(startOffset).append(',')
-                    .append(endOffset).append(',').append(posInc);
-            return sb.toString();
+    // reads a surrogate pair as one code point only if a supplementary code point can be a delimiter
+    private int readCodePoint() throws IOException {
+        final int c = readCharFromBuffer();
+        if (c == -1 || !Character.isHighSurrogate((char) c) || !delimiters.hasSupplementary()) {
+            return c;
         }
-
-        @Override
-        public boolean equals(final Object other) {
-            if (other == null || !(other instanceof MyToken)) {
-                return false;
-            }
-            final MyToken o = (MyToken) other;
-            if (!word.equals(o.word)) {
-                return false;
-            }
-            if (startOffset != o.startOffset) {
-                return false;
-            }
-            if (endOffset != o.endOffset) {
-                return false;
-            }
-            if (posInc != o.posInc) {
-                return false;
-            }
-            return true;
+        final int low = readCharFromBuffer();
+        if (low == -1) {
+            return c;
         }
-
-        @Override
-        public int hashCode() {
-            return word.hashCode() + posInc << 30 + startOffset << 15 + endOffset;
+        if (!Character.isLowSurrogate((char) low)) {
+            // not a pair; read the char again next time
+            readBufferIndex--;
+            nextBlkStart--;
+            return c;
         }
+        return Character.toCodePoint((char) c, (char) low);
     }
 
-    /*
-      static class SynInfo {
-        final String src;
-        final int offset, length;
-        final String[] synonyms;
-        Mode mode;
-        int count;
-        SynInfo(String src, int offset, int length, String[] synonyms){
-          this.src = src;
-          this.offset = offset;
-          this.length = length;
-          this.synonyms = synonyms;
-        }
-
-        static enum Mode {
-          PREV, SYN, AFTER;
-        }
-      }
-      */
-
-    static class MyTokensComparator implements Comparator<MyToken> {
-        @Override
-        public int compare(final MyToken t1, final MyToken t2) {
-            if (t1.startOffset < t2.startOffset) {
-                return -1;
-            } else if (t1.startOffset > t2.startOffset) {
-                return 1;
-            }
-
-            if (t1.endOffset < t2.endOffset) {
-                return -1;
-            } else if (t1.endOffset > t2.endOffset) {
-                return 1;
-            }
-
-            if (t1.posInc > t2.posInc) {
-                return -1;
-            } else if (t1.posInc < t2.posInc) {
-                return 1;
-            }
-
-            if (t1.seq < t2.seq) {
-                return -1;
-            } else if (t1.seq > t2.seq) {
-                return 1;
-            }
-
-            return -1;
-        }
+    boolean isDelimiter(final int c) {
+        return delimiters.contains(c);
     }
 }
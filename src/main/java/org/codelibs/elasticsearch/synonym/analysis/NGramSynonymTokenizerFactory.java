@@ -1,5 +1,9 @@
 package org.codelibs.elasticsearch.synonym.analysis;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
 import org.apache.lucene.analysis.Tokenizer;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
@@ -11,24 +15,95 @@ import org.elasticsearch.index.analysis.AbstractTokenizerFactory;
  */
 public final class NGramSynonymTokenizerFactory extends AbstractTokenizerFactory {
 
-    private final boolean ignoreCase;
+    private final SynonymNormalizer normalizer;
+
+    private final int minGram;
 
-    private final int n;
+    private final int maxGram;
 
-    private final String delimiters;
+    private final Delimiters delimiters;
 
     private final boolean expand;
 
+    private final NGramSynonymTokenizer.Mode mode;
+
+    private final boolean emitPrevBoundary;
+
+    private final boolean emitAfterBoundary;
+
+    private final int maxBoundaryGram;
+
+    private final boolean mixedScript;
+
+    private final int maxExpansionsPerMatch;
+
+    private final int maxSynonymTokensPerDoc;
+
+    private final SynonymStats stats;
+
+    private final SynonymSlowLog slowLog;
+
     private SynonymLoader synonymLoader = null;
 
     public NGramSynonymTokenizerFactory(final IndexSettings indexSettings, final Environment env, final String name, final Settings settings) {
+        this(indexSettings, env, name, settings, null);
+    }
+
+    public NGramSynonymTokenizerFactory(final IndexSettings indexSettings, final Environment env, final String name, final Settings settings,
+            final SynonymStatsRegistry statsRegistry) {
         super(indexSettings, name, settings);
-        ignoreCase = settings.getAsBoolean("ignore_case", true);
-        n = settings.getAsInt("n", NGramSynonymTokenizer.DEFAULT_N_SIZE);
-        delimiters = settings.get("delimiters", NGramSynonymTokenizer.DEFAULT_DELIMITERS);
+        final List<String> normalization = settings.getAsList("normalization", Collections.emptyList());
+        // a normalization profile replaces the case folding of ignore_case by default, unless it is set explicitly
+        final boolean ignoreCase = settings.getAsBoolean("ignore_case", normalization.isEmpty());
+        normalizer = SynonymNormalizer.of(normalization, ignoreCase);
+        final int n = settings.getAsInt("n", NGramSynonymTokenizer.DEFAULT_N_SIZE);
+        minGram = settings.getAsInt("min_gram", n);
+        maxGram = settings.getAsInt("max_gram", Math.max(n, minGram));
+        if (minGram < 1 || maxGram < minGram) {
+            throw new IllegalArgumentException("min_gram must be positive and not greater than max_gram: min_gram="
+                    + minGram + ", max_gram=" + maxGram);
+        }
+        delimiters = Delimiters.compile(settings.get("delimiters", NGramSynonymTokenizer.DEFAULT_DELIMITERS),
+                settings.getAsList("delimiter_classes", Collections.emptyList()));
         expand = settings.getAsBoolean("expand", true);
+        final String modeName = settings.get("mode", "index");
+        try {
+            mode = NGramSynonymTokenizer.Mode.valueOf(modeName.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("mode must be index, search or edge: " + modeName, e);
+        }
+        // the tokens have no position lengths: they form a valid graph only if each takes one position, i.e. with grams of
+        // one length, or in the edge mode where the grams of a block are alternatives at one position
+        if (settings.getAsBoolean("graph", false) && minGram != maxGram && mode != NGramSynonymTokenizer.Mode.EDGE) {
+            throw new IllegalArgumentException("graph needs min_gram equal to max_gram, or the edge mode: min_gram=" + minGram
+                    + ", max_gram=" + maxGram);
+        }
+        emitPrevBoundary = settings.getAsBoolean("emit_prev_boundary", true);
+        emitAfterBoundary = settings.getAsBoolean("emit_after_boundary", true);
+        maxBoundaryGram = settings.getAsInt("max_boundary_gram", minGram - 1);
+        if (maxBoundaryGram < 0) {
+            throw new IllegalArgumentException("max_boundary_gram must be non-negative: " + maxBoundaryGram);
+        }
+        mixedScript = settings.getAsBoolean("mixed_script", false);
+        maxExpansionsPerMatch = settings.getAsInt("max_expansions_per_match", Integer.MAX_VALUE);
+        if (maxExpansionsPerMatch < 0) {
+            throw new IllegalArgumentException("max_expansions_per_match must be non-negative: " + maxExpansionsPerMatch);
+        }
+        maxSynonymTokensPerDoc = settings.getAsInt("max_synonym_tokens_per_doc", Integer.MAX_VALUE);
+        if (maxSynonymTokensPerDoc < 0) {
+            throw new IllegalArgumentException("max_synonym_tokens_per_doc must be non-negative: " + maxSynonymTokensPerDoc);
+        }
+        final int ruleHitSampleInterval = settings.getAsInt("rule_hits_sample_interval", 0);
+        if (ruleHitSampleInterval < 0) {
+            throw new IllegalArgumentException("rule_hits_sample_interval must be non-negative: " + ruleHitSampleInterval);
+        }
+        stats = new SynonymStats(ruleHitSampleInterval);
+        slowLog = new SynonymSlowLog(indexSettings, name, "ngram_synonym");
+        if (statsRegistry != null) {
+            statsRegistry.register(indexSettings, name, "ngram_synonym", stats);
+        }
 
-        synonymLoader = new SynonymLoader(env, settings, expand, SynonymLoader.getAnalyzer(ignoreCase));
+        synonymLoader = new SynonymLoader(env, settings, expand, SynonymLoader.getAnalyzer(normalizer), true);
         if (synonymLoader.getSynonymMap() == null) {
             if (settings.getAsList("synonyms", null) != null) {
                 logger.warn("synonyms values are empty.");
@@ -42,6 +117,29 @@ public final class NGramSynonymTokenizerFactory extends AbstractTokenizerFactory
 
     @Override
     public Tokenizer create() {
-        return new NGramSynonymTokenizer(n, delimiters, expand, ignoreCase, synonymLoader);
+        final NGramSynonymTokenizer tokenizer = create(stats);
+        tokenizer.setSlowLog(slowLog);
+        return tokenizer;
+    }
+
+    /**
+     * Creates a tokenizer for profiling, which reports to its own stats and neither to the slowlog nor to JFR.
+     */
+    NGramSynonymTokenizer createForProfiling() {
+        final NGramSynonymTokenizer tokenizer = create(new SynonymStats());
+        tokenizer.setEvents(new SynonymEvents());
+        return tokenizer;
+    }
+
+    private NGramSynonymTokenizer create(final SynonymStats stats) {
+        final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(minGram, maxGram, delimiters, expand, mode,
+                normalizer, synonymLoader, maxExpansionsPerMatch, maxSynonymTokensPerDoc, stats);
+        tokenizer.setBoundaryGrams(emitPrevBoundary, emitAfterBoundary, maxBoundaryGram);
+        tokenizer.setMixedScript(mixedScript);
+        return tokenizer;
+    }
+
+    public SynonymStats getStats() {
+        return stats;
     }
 }
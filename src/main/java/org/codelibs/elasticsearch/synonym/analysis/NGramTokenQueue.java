@@ -0,0 +1,303 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The tokens of one block of {@link NGramSynonymTokenizer}, held in parallel arrays.
+ * A token refers to its word in a shared char array (the block or the dictionary's word pool),
+ * so once the arrays have grown, adding and polling tokens allocates nothing.
+ *
+ * <p>Tokens are polled ordered by start offset, end offset, position increment (descending) and sequence.
+ * All tokens of a block are added before the first poll, so they are ordered once, by a counting sort on
+ * the start offset followed by an insertion sort within each offset. A block yields only a few tokens per
+ * offset, so ordering costs linear time instead of O(log k) per token.</p>
+ *
+ * <p>A block tokenized in windows polls only the tokens before a limit offset. Tokens added afterwards
+ * must not start before that limit; they are ordered together with the tokens left in the queue.</p>
+ */
+final class NGramTokenQueue {
+
+    /** Sequence of the original of synonyms. */
+    static final int ORIGINAL_SEQ = 0;
+
+    /** Sequence of n-grams, which are not part of synonyms. */
+    static final int UNUSED_SEQ = Integer.MAX_VALUE;
+
+    private char[][] chars = new char[16][];
+
+    private int[] offsets = new int[16];
+
+    private int[] lengths = new int[16];
+
+    private int[] startOffsets = new int[16];
+
+    private int[] endOffsets = new int[16];
+
+    private int[] posIncs = new int[16];
+
+    private int[] seqs = new int[16];
+
+    private int count;
+
+    private int minStartOffset = Integer.MAX_VALUE;
+
+    private int maxStartOffset = Integer.MIN_VALUE;
+
+    // token indexes in polling order, built on the first poll
+    private int[] order = new int[16];
+
+    private int[] bucketCounts = new int[16];
+
+    private boolean sorted;
+
+    private int upto;
+
+    private int limit = Integer.MAX_VALUE;
+
+    private int prev = -1;
+
+    void clear() {
+        // drop the references to the words of the previous block
+        for (int i = 0; i < count; i++) {
+            chars[i] = null;
+        }
+        count = 0;
+        minStartOffset = Integer.MAX_VALUE;
+        maxStartOffset = Integer.MIN_VALUE;
+        sorted = false;
+        upto = 0;
+        limit = Integer.MAX_VALUE;
+        prev = -1;
+    }
+
+    /**
+     * Polls only the tokens starting before the given offset.
+     */
+    void setLimit(final int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Shifts the words referring to the given chars, after the chars were moved left by {@code shift}.
+     */
+    void shiftWords(final char[] words, final int shift) {
+        for (int i = 0; i < count; i++) {
+            if (chars[i] == words) {
+                offsets[i] -= shift;
+            }
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the index of the token
+     */
+    int add(final char[] word, final int offset, final int length, final int startOffset, final int endOffset,
+            final int posInc, final int seq) {
+        if (sorted) {
+            compact();
+        }
+        assert startOffset >= limit || limit == Integer.MAX_VALUE : "token before the limit: " + startOffset;
+        if (count == startOffsets.length) {
+            grow();
+        }
+        final int index = count++;
+        chars[index] = word;
+        offsets[index] = offset;
+        lengths[index] = length;
+        startOffsets[index] = startOffset;
+        endOffsets[index] = endOffset;
+        posIncs[index] = posInc;
+        seqs[index] = seq;
+        minStartOffset = Math.min(minStartOffset, startOffset);
+        maxStartOffset = Math.max(maxStartOffset, startOffset);
+        return index;
+    }
+
+    /**
+     * @return the index of the next token, or -1 if the queue is empty
+     */
+    int poll() {
+        if (!sorted) {
+            sort();
+        }
+        if (upto == count || startOffsets[order[upto]] >= limit) {
+            return -1;
+        }
+        return order[upto++];
+    }
+
+    /**
+     * Polls the next token which is not identical to the one polled before.
+     *
+     * @return the index of the token, or -1 if the queue is empty
+     */
+    int pollUnique() {
+        while (true) {
+            final int token = poll();
+            if (token == -1) {
+                return -1;
+            }
+            if (prev == -1 || !identical(prev, token)) {
+                prev = token;
+                return token;
+            }
+        }
+    }
+
+    /**
+     * A token is identical to a preceding one if it is stacked on it with the same word and offsets.
+     */
+    boolean identical(final int token, final int other) {
+        return posIncs[other] == 0 && startOffsets[token] == startOffsets[other]
+                && endOffsets[token] == endOffsets[other] && wordEquals(token, chars[other], offsets[other], lengths[other]);
+    }
+
+    /**
+     * Returns whether a token in the queue has the given word.
+     */
+    boolean containsWord(final char[] word, final int offset, final int length) {
+        for (int i = 0; i < count; i++) {
+            if (wordEquals(i, word, offset, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean wordEquals(final int token, final char[] word, final int offset, final int length) {
+        if (lengths[token] != length) {
+            return false;
+        }
+        final char[] tokenChars = chars[token];
+        final int tokenOffset = offsets[token];
+        for (int i = 0; i < length; i++) {
+            if (tokenChars[tokenOffset + i] != word[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    char[] getChars(final int token) {
+        return chars[token];
+    }
+
+    int getOffset(final int token) {
+        return offsets[token];
+    }
+
+    int getLength(final int token) {
+        return lengths[token];
+    }
+
+    int getStartOffset(final int token) {
+        return startOffsets[token];
+    }
+
+    int getEndOffset(final int token) {
+        return endOffsets[token];
+    }
+
+    int getPosInc(final int token) {
+        return posIncs[token];
+    }
+
+    // drops the polled tokens, i.e. the tokens before the limit, keeping the others in insertion order
+    private void compact() {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (startOffsets[i] >= limit) {
+                chars[size] = chars[i];
+                offsets[size] = offsets[i];
+                lengths[size] = lengths[i];
+                startOffsets[size] = startOffsets[i];
+                endOffsets[size] = endOffsets[i];
+                posIncs[size] = posIncs[i];
+                seqs[size] = seqs[i];
+                size++;
+            }
+        }
+        for (int i = size; i < count; i++) {
+            chars[i] = null;
+        }
+        count = size;
+        minStartOffset = Integer.MAX_VALUE;
+        maxStartOffset = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minStartOffset = Math.min(minStartOffset, startOffsets[i]);
+            maxStartOffset = Math.max(maxStartOffset, startOffsets[i]);
+        }
+        sorted = false;
+        upto = 0;
+        // identical tokens start at the same offset, so they are never split by the limit
+        prev = -1;
+    }
+
+    private void sort() {
+        sorted = true;
+        if (count == 0) {
+            return;
+        }
+        // counting sort on the start offset; tokens keep their insertion order within an offset
+        final int bucketCount = maxStartOffset - minStartOffset + 1;
+        bucketCounts = ArrayUtil.grow(bucketCounts, bucketCount + 1);
+        Arrays.fill(bucketCounts, 0, bucketCount + 1, 0);
+        for (int i = 0; i < count; i++) {
+            bucketCounts[startOffsets[i] - minStartOffset + 1]++;
+        }
+        for (int b = 1; b <= bucketCount; b++) {
+            bucketCounts[b] += bucketCounts[b - 1];
+        }
+        for (int i = 0; i < count; i++) {
+            order[bucketCounts[startOffsets[i] - minStartOffset]++] = i;
+        }
+
+        // stable insertion sort within each offset; after the loop above,
+        // bucketCounts[b] is the end of bucket b
+        int bucketStart = 0;
+        for (int b = 0; b < bucketCount; b++) {
+            final int bucketEnd = bucketCounts[b];
+            for (int i = bucketStart + 1; i < bucketEnd; i++) {
+                final int token = order[i];
+                int j = i - 1;
+                while (j >= bucketStart && lessThan(token, order[j])) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = token;
+            }
+            bucketStart = bucketEnd;
+        }
+    }
+
+    // tokens with the same start offset only
+    private boolean lessThan(final int t1, final int t2) {
+        if (endOffsets[t1] != endOffsets[t2]) {
+            return endOffsets[t1] < endOffsets[t2];
+        }
+        if (posIncs[t1] != posIncs[t2]) {
+            return posIncs[t1] > posIncs[t2];
+        }
+        // ties are words at the same place, which keep their insertion order
+        return seqs[t1] < seqs[t2];
+    }
+
+    private void grow() {
+        final int size = ArrayUtil.oversize(count + 1, RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        chars = Arrays.copyOf(chars, size);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        startOffsets = Arrays.copyOf(startOffsets, size);
+        endOffsets = Arrays.copyOf(endOffsets, size);
+        posIncs = Arrays.copyOf(posIncs, size);
+        seqs = Arrays.copyOf(seqs, size);
+        order = Arrays.copyOf(order, size);
+    }
+}
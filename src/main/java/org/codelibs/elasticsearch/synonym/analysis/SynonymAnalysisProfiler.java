@@ -0,0 +1,351 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.elasticsearch.index.analysis.CharFilterFactory;
+import org.elasticsearch.index.analysis.CustomAnalyzer;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.analysis.TokenizerFactory;
+
+/**
+ * Runs texts through the components of a custom analyzer and measures the time and the allocation of each component.
+ *
+ * <p>Nothing is inserted between the components. Instead, every prefix of the chain (the first char filter, the
+ * first two, ..., up to the tokenizer and all token filters) analyzes the texts in turn, and a component is measured
+ * as the difference between the prefix ending with it and the one before. Short components may come out as zero
+ * because of noise, so run enough iterations.</p>
+ *
+ * <p>The synonym tokenizers and filters of the chain leave the stats, the slowlog and the JFR events of the index
+ * untouched.</p>
+ */
+public class SynonymAnalysisProfiler {
+
+    private final CustomAnalyzer analyzer;
+
+    private final CharFilterFactory[] charFilters;
+
+    private final TokenFilterFactory[] tokenFilters;
+
+    public SynonymAnalysisProfiler(final CustomAnalyzer analyzer) {
+        this.analyzer = analyzer;
+        this.charFilters = analyzer.charFilters();
+        this.tokenFilters = analyzer.tokenFilters();
+    }
+
+    /**
+     * Analyzes the texts {@code warmup} times, then {@code iterations} times measuring time and
+     * {@code iterations} times measuring allocation, with every prefix of the chain.
+     */
+    public Result profile(final List<String> texts, final int warmup, final int iterations) throws IOException {
+        final int size = charFilters.length + 1 + tokenFilters.length;
+        final Prefix[] prefixes = new Prefix[size];
+        for (int i = 0; i < size; i++) {
+            prefixes[i] = new Prefix(i);
+        }
+
+        for (int i = 0; i < warmup; i++) {
+            for (final Prefix prefix : prefixes) {
+                prefix.analyze(texts);
+            }
+        }
+
+        // the prefixes take turns, so drifts of the clock or the JIT spread over all of them
+        final Prefix chain = prefixes[size - 1];
+        final long[] startLookups = chain.getLookupCounts();
+        final long[] startArcs = chain.getArcCounts();
+        final long[] nanos = new long[size];
+        long tokens = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < size; j++) {
+                final long start = System.nanoTime();
+                final long count = prefixes[j].analyze(texts);
+                nanos[j] += System.nanoTime() - start;
+                if (j == size - 1) {
+                    tokens += count;
+                }
+            }
+        }
+        final long[] endLookups = chain.getLookupCounts();
+        final long[] endArcs = chain.getArcCounts();
+
+        final AllocationCounter allocationCounter = AllocationCounter.create();
+        final long[] allocations = new long[size];
+        if (allocationCounter != null) {
+            for (int i = 0; i < iterations; i++) {
+                for (int j = 0; j < size; j++) {
+                    final long start = allocationCounter.read();
+                    prefixes[j].analyze(texts);
+                    allocations[j] += allocationCounter.read() - start;
+                }
+            }
+        }
+
+        final int divisor = Math.max(iterations, 1);
+        final List<Component> components = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final Component component;
+            if (i < charFilters.length) {
+                final Reader reader = charFilters[i].create(new StringReader(""));
+                component = new Component(charFilters[i].name(), "char_filter", reader.getClass().getSimpleName());
+            } else if (i == charFilters.length) {
+                component = new Component(analyzer.getTokenizerName(), "tokenizer", chain.types[i]);
+            } else {
+                component = new Component(tokenFilters[i - charFilters.length - 1].name(), "token_filter", chain.types[i]);
+            }
+            component.nanos = Math.max(0, nanos[i] - (i == 0 ? 0 : nanos[i - 1])) / divisor;
+            component.allocatedBytes = allocationCounter == null ? -1
+                    : Math.max(0, allocations[i] - (i == 0 ? 0 : allocations[i - 1])) / divisor;
+            if (endLookups[i] >= 0) {
+                component.lookups = (endLookups[i] - startLookups[i]) / divisor;
+                component.arcs = (endArcs[i] - startArcs[i]) / divisor;
+            }
+            components.add(component);
+        }
+        return new Result(tokens / divisor, components);
+    }
+
+    public static class Result {
+
+        private final long tokens;
+
+        private final List<Component> components;
+
+        Result(final long tokens, final List<Component> components) {
+            this.tokens = tokens;
+            this.components = components;
+        }
+
+        /**
+         * Returns the tokens of one iteration over the texts.
+         */
+        public long getTokens() {
+            return tokens;
+        }
+
+        public List<Component> getComponents() {
+            return components;
+        }
+    }
+
+    /**
+     * Measurements of one component, per iteration over the texts.
+     */
+    public static class Component {
+
+        private final String name;
+
+        private final String kind;
+
+        private final String type;
+
+        private long nanos;
+
+        private long allocatedBytes;
+
+        private long lookups = -1;
+
+        private long arcs = -1;
+
+        Component(final String name, final String kind, final String type) {
+            this.name = name;
+            this.kind = kind;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns "char_filter", "tokenizer" or "token_filter".
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns "ngram_synonym", "synonym_filter", or the class name of other components.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Returns the allocated bytes, or -1 if the JVM does not count them.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns the dictionary lookups, or -1 if the component is not a synonym tokenizer or filter.
+         */
+        public long getLookups() {
+            return lookups;
+        }
+
+        /**
+         * Returns the FST arcs or automaton transitions followed, or -1 if the component is not a synonym tokenizer or filter.
+         */
+        public long getArcs() {
+            return arcs;
+        }
+    }
+
+    // the chain up to and including a component
+    private class Prefix {
+
+        private final int last;
+
+        private final Tokenizer tokenizer;
+
+        private final TokenStream[] streams;
+
+        private final String[] types;
+
+        private final char[] buffer;
+
+        Prefix(final int last) {
+            this.last = last;
+            streams = new TokenStream[last + 1];
+            types = new String[last + 1];
+            if (last < charFilters.length) {
+                tokenizer = null;
+                buffer = new char[1024];
+                return;
+            }
+            buffer = null;
+            tokenizer = createTokenizer(analyzer.tokenizerFactory());
+            TokenStream stream = tokenizer;
+            streams[charFilters.length] = stream;
+            types[charFilters.length] = getType(stream);
+            for (int i = charFilters.length + 1; i <= last; i++) {
+                stream = createTokenFilter(tokenFilters[i - charFilters.length - 1], stream);
+                streams[i] = stream;
+                types[i] = getType(stream);
+            }
+        }
+
+        // the synonym components get private stats, and no slowlog or JFR events, so profiling does not show up in them
+        private Tokenizer createTokenizer(final TokenizerFactory factory) {
+            if (factory instanceof NGramSynonymTokenizerFactory) {
+                return ((NGramSynonymTokenizerFactory) factory).createForProfiling();
+            }
+            return factory.create();
+        }
+
+        private TokenStream createTokenFilter(final TokenFilterFactory factory, final TokenStream stream) {
+            if (factory instanceof SynonymTokenFilterFactory) {
+                return ((SynonymTokenFilterFactory) factory).createForProfiling(stream);
+            }
+            return factory.create(stream);
+        }
+
+        // returns the number of tokens, or of chars if the prefix ends with a char filter
+        long analyze(final List<String> texts) throws IOException {
+            long count = 0;
+            for (final String text : texts) {
+                Reader reader = new StringReader(text);
+                for (int i = 0; i < charFilters.length && i <= last; i++) {
+                    reader = charFilters[i].create(reader);
+                }
+                if (tokenizer == null) {
+                    int n;
+                    while ((n = reader.read(buffer)) != -1) {
+                        count += n;
+                    }
+                    reader.close();
+                    continue;
+                }
+                final TokenStream stream = streams[last];
+                tokenizer.setReader(reader);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    count++;
+                }
+                stream.end();
+                stream.close();
+            }
+            return count;
+        }
+
+        // -1 for the components which are not synonym tokenizers or filters
+        long[] getLookupCounts() {
+            final long[] counts = new long[streams.length];
+            for (int i = 0; i < streams.length; i++) {
+                if (streams[i] instanceof NGramSynonymTokenizer) {
+                    counts[i] = ((NGramSynonymTokenizer) streams[i]).getLookupCount();
+                } else if (streams[i] instanceof SynonymFilter) {
+                    counts[i] = ((SynonymFilter) streams[i]).getLookupCount();
+                } else {
+                    counts[i] = -1;
+                }
+            }
+            return counts;
+        }
+
+        long[] getArcCounts() {
+            final long[] counts = new long[streams.length];
+            for (int i = 0; i < streams.length; i++) {
+                if (streams[i] instanceof NGramSynonymTokenizer) {
+                    counts[i] = ((NGramSynonymTokenizer) streams[i]).getArcCount();
+                } else if (streams[i] instanceof SynonymFilter) {
+                    counts[i] = ((SynonymFilter) streams[i]).getArcCount();
+                } else {
+                    counts[i] = -1;
+                }
+            }
+            return counts;
+        }
+
+        private String getType(final TokenStream stream) {
+            if (stream instanceof NGramSynonymTokenizer) {
+                return "ngram_synonym";
+            } else if (stream instanceof SynonymFilter) {
+                return "synonym_filter";
+            }
+            return stream.getClass().getSimpleName();
+        }
+    }
+
+    private static class AllocationCounter {
+
+        private final com.sun.management.ThreadMXBean threadBean;
+
+        private final long threadId = Thread.currentThread().getId();
+
+        private AllocationCounter(final com.sun.management.ThreadMXBean threadBean) {
+            this.threadBean = threadBean;
+        }
+
+        // returns null if the JVM does not count allocated bytes per thread
+        static AllocationCounter create() {
+            try {
+                final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                if (bean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+                    return new AllocationCounter((com.sun.management.ThreadMXBean) bean);
+                }
+            } catch (final SecurityException | LinkageError e) {
+                // not counted
+            }
+            return null;
+        }
+
+        long read() {
+            return threadBean.getThreadAllocatedBytes(threadId);
+        }
+    }
+}
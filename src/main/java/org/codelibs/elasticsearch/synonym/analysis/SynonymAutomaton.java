@@ -0,0 +1,253 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+
+/**
+ * An Aho-Corasick automaton over the code points of the dictionary entries, built from the FST of a
+ * {@link SynonymDictionary}. It lets {@link NGramSynonymTokenizer} find the entries in a block with one pass
+ * over its chars, instead of walking the FST from every offset.
+ *
+ * <p>State 0 is the root. The depth of a state is the number of code points of the entry prefix it stands for.</p>
+ */
+public class SynonymAutomaton {
+
+    // transitions of each state, sorted by label: from childStarts[s] to childEnds[s]
+    private final int[] childStarts;
+
+    private final int[] childEnds;
+
+    private final int[] childLabels;
+
+    private final int[] childTargets;
+
+    // transitions of the root, by label
+    private final CodePointTable rootChildren = new CodePointTable();
+
+    private final int[] depths;
+
+    private final int maxDepth;
+
+    private final int[] failures;
+
+    // the deepest state which is an entry, among the state and its failures, or -1
+    private final int[] matchLinks;
+
+    // index of the entry of each state, or -1
+    private final int[] stateOutputs;
+
+    private final int[] outputOffsets;
+
+    private final int[] outputLengths;
+
+    private final byte[] outputBytes;
+
+    public SynonymAutomaton(final FST<BytesRef> fst) {
+        // a trie of the entries; they are enumerated in label order, so the children of a state are added in order
+        int stateCount = 1;
+        int[] lastChildren = new int[16];
+        int[] nextSiblings = new int[16];
+        int[] firstChildren = new int[16];
+        int[] labels = new int[16];
+        int[] stateDepths = new int[16];
+        int[] stateOutputs = new int[16];
+        Arrays.fill(lastChildren, -1);
+        Arrays.fill(firstChildren, -1);
+        stateOutputs[0] = -1;
+        int[] offsets = new int[16];
+        int[] lengths = new int[16];
+        byte[] bytes = new byte[64];
+        int entryCount = 0;
+        int byteCount = 0;
+        try {
+            final IntsRefFSTEnum<BytesRef> fstEnum = new IntsRefFSTEnum<>(fst);
+            IntsRefFSTEnum.InputOutput<BytesRef> entry;
+            while ((entry = fstEnum.next()) != null) {
+                final IntsRef input = entry.input;
+                int state = 0;
+                for (int i = 0; i < input.length; i++) {
+                    final int label = input.ints[input.offset + i];
+                    final int lastChild = lastChildren[state];
+                    if (lastChild >= 0 && labels[lastChild] == label) {
+                        state = lastChild;
+                        continue;
+                    }
+                    if (stateCount == labels.length) {
+                        final int size = ArrayUtil.oversize(stateCount + 1, Integer.BYTES);
+                        lastChildren = grow(lastChildren, size);
+                        nextSiblings = grow(nextSiblings, size);
+                        firstChildren = grow(firstChildren, size);
+                        labels = Arrays.copyOf(labels, size);
+                        stateDepths = Arrays.copyOf(stateDepths, size);
+                        stateOutputs = Arrays.copyOf(stateOutputs, size);
+                    }
+                    final int child = stateCount++;
+                    labels[child] = label;
+                    stateDepths[child] = stateDepths[state] + 1;
+                    stateOutputs[child] = -1;
+                    nextSiblings[child] = -1;
+                    if (lastChild >= 0) {
+                        nextSiblings[lastChild] = child;
+                    } else {
+                        firstChildren[state] = child;
+                    }
+                    lastChildren[state] = child;
+                    state = child;
+                }
+
+                final BytesRef output = entry.output;
+                if (entryCount == offsets.length) {
+                    offsets = ArrayUtil.grow(offsets, entryCount + 1);
+                    lengths = ArrayUtil.grow(lengths, entryCount + 1);
+                }
+                bytes = ArrayUtil.grow(bytes, byteCount + output.length);
+                System.arraycopy(output.bytes, output.offset, bytes, byteCount, output.length);
+                offsets[entryCount] = byteCount;
+                lengths[entryCount] = output.length;
+                byteCount += output.length;
+                stateOutputs[state] = entryCount++;
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to read entries.", e);
+        }
+        outputOffsets = Arrays.copyOf(offsets, entryCount);
+        outputLengths = Arrays.copyOf(lengths, entryCount);
+        outputBytes = Arrays.copyOf(bytes, byteCount);
+
+        // flatten the children, in breadth-first order
+        childStarts = new int[stateCount];
+        childEnds = new int[stateCount];
+        childLabels = new int[stateCount - 1];
+        childTargets = new int[stateCount - 1];
+        final int[] queue = new int[stateCount];
+        int queueEnd = 1;
+        int childCount = 0;
+        for (int i = 0; i < queueEnd; i++) {
+            final int state = queue[i];
+            childStarts[state] = childCount;
+            for (int child = firstChildren[state]; child >= 0; child = nextSiblings[child]) {
+                childLabels[childCount] = labels[child];
+                childTargets[childCount] = child;
+                childCount++;
+                queue[queueEnd++] = child;
+            }
+            childEnds[state] = childCount;
+        }
+
+        depths = Arrays.copyOf(stateDepths, stateCount);
+        int deepest = 0;
+        for (final int depth : depths) {
+            deepest = Math.max(deepest, depth);
+        }
+        maxDepth = deepest;
+        this.stateOutputs = Arrays.copyOf(stateOutputs, stateCount);
+        for (int i = childStarts[0]; i < childEnds[0]; i++) {
+            rootChildren.put(childLabels[i], childTargets[i]);
+        }
+
+        // failures point to shallower states, which come first in breadth-first order
+        failures = new int[stateCount];
+        matchLinks = new int[stateCount];
+        matchLinks[0] = -1;
+        for (int i = 0; i < stateCount; i++) {
+            final int state = queue[i];
+            for (int c = childStarts[state]; c < childEnds[state]; c++) {
+                final int child = childTargets[c];
+                final int failure = state == 0 ? 0 : step(failures[state], childLabels[c]);
+                failures[child] = failure;
+                matchLinks[child] = stateOutputs[child] >= 0 ? child : matchLinks[failure];
+            }
+        }
+    }
+
+    /**
+     * Returns the state after reading the given label.
+     */
+    public int step(int state, final int label) {
+        while (true) {
+            final int next = getChild(state, label);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures[state];
+        }
+    }
+
+    public int getDepth(final int state) {
+        return depths[state];
+    }
+
+    /**
+     * Returns the depth of the deepest state, i.e. the length of the longest entry.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the longest entry which is a suffix of the given state, or -1.
+     */
+    public int getMatch(final int state) {
+        return matchLinks[state];
+    }
+
+    /**
+     * Returns the next shorter entry which is a suffix of the given entry state, or -1.
+     */
+    public int getNextMatch(final int matchState) {
+        return matchLinks[failures[matchState]];
+    }
+
+    /**
+     * Sets the FST output of an entry state to the given ref, which then refers to a shared pool.
+     */
+    public void getOutput(final int matchState, final BytesRef output) {
+        final int entry = stateOutputs[matchState];
+        output.bytes = outputBytes;
+        output.offset = outputOffsets[entry];
+        output.length = outputLengths[entry];
+    }
+
+    /**
+     * Returns the index of the entry of an entry state. Entries are numbered in the order of their inputs, as enumerated from the FST.
+     */
+    public int getEntry(final int matchState) {
+        return stateOutputs[matchState];
+    }
+
+    public int getEntryCount() {
+        return outputOffsets.length;
+    }
+
+    public int getStateCount() {
+        return depths.length;
+    }
+
+    /**
+     * Returns the state after reading the given label without following failures, i.e. in the trie of the entries, or -1.
+     */
+    public int getChild(final int state, final int label) {
+        if (state == 0) {
+            return rootChildren.get(label);
+        }
+        final int index = Arrays.binarySearch(childLabels, childStarts[state], childEnds[state], label);
+        return index < 0 ? -1 : childTargets[index];
+    }
+
+    private static int[] grow(final int[] array, final int size) {
+        final int length = array.length;
+        final int[] next = Arrays.copyOf(array, size);
+        Arrays.fill(next, length, size, -1);
+        return next;
+    }
+}
@@ -0,0 +1,173 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+
+/**
+ * A snapshot of a {@link SynonymMap} together with lookup structures derived from it.
+ * A new instance is built whenever {@link SynonymLoader} (re)loads the map, and it is
+ * shared read-only by all {@link SynonymFilter}s and {@link NGramSynonymTokenizer}s.
+ */
+public class SynonymDictionary {
+
+    private final SynonymMap synonymMap;
+
+    private final char[] wordChars;
+
+    private final int[] wordOffsets;
+
+    private final int[] wordLengths;
+
+    // root arcs of the FST, in label order, and their indexes by the first code point
+    private final FST.Arc<BytesRef>[] rootArcs;
+
+    private final CodePointTable rootArcIndexes = new CodePointTable();
+
+    private volatile SynonymAutomaton automaton;
+
+    public SynonymDictionary(final SynonymMap synonymMap) {
+        this(synonymMap, false);
+    }
+
+    /**
+     * @param buildAutomaton builds the automaton of {@link #getAutomaton()} now, with the dictionary, instead of on first use
+     */
+    @SuppressWarnings("unchecked")
+    public SynonymDictionary(final SynonymMap synonymMap, final boolean buildAutomaton) {
+        this.synonymMap = synonymMap;
+
+        // decode the output words once, instead of per match
+        final BytesRefHash words = synonymMap.words;
+        final int size = words.size();
+        wordOffsets = new int[size];
+        wordLengths = new int[size];
+        final BytesRef scratchBytes = new BytesRef();
+        final CharsRefBuilder scratchChars = new CharsRefBuilder();
+        char[] chars = new char[16];
+        int upto = 0;
+        for (int id = 0; id < size; id++) {
+            words.get(id, scratchBytes);
+            scratchChars.copyUTF8Bytes(scratchBytes);
+            final int length = scratchChars.length();
+            chars = ArrayUtil.grow(chars, upto + length);
+            System.arraycopy(scratchChars.chars(), 0, chars, upto, length);
+            wordOffsets[id] = upto;
+            wordLengths[id] = length;
+            upto += length;
+        }
+        wordChars = Arrays.copyOf(chars, upto);
+
+        // resolve the root arcs once, instead of searching them at every start position
+        final List<FST.Arc<BytesRef>> arcs = new ArrayList<>();
+        final FST<BytesRef> fst = synonymMap.fst;
+        if (fst != null) {
+            try {
+                final FST.BytesReader fstReader = fst.getBytesReader();
+                final FST.Arc<BytesRef> arc = fst.getFirstArc(new FST.Arc<>());
+                if (FST.targetHasArcs(arc)) {
+                    fst.readFirstTargetArc(arc, arc, fstReader);
+                    while (true) {
+                        if (arc.label != FST.END_LABEL) {
+                            rootArcIndexes.put(arc.label, arcs.size());
+                            arcs.add(new FST.Arc<BytesRef>().copyFrom(arc));
+                        }
+                        if (arc.isLast()) {
+                            break;
+                        }
+                        fst.readNextArc(arc, fstReader);
+                    }
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Failed to read root arcs.", e);
+            }
+        }
+        rootArcs = arcs.toArray(new FST.Arc[arcs.size()]);
+
+        if (buildAutomaton && fst != null) {
+            automaton = buildAutomaton();
+        }
+    }
+
+    public SynonymMap getSynonymMap() {
+        return synonymMap;
+    }
+
+    public FST<BytesRef> getFst() {
+        return synonymMap.fst;
+    }
+
+    public int getMaxHorizontalContext() {
+        return synonymMap.maxHorizontalContext;
+    }
+
+    /**
+     * Returns the number of code points of the longest entry, including word separators. It comes from the
+     * automaton, so only its users pay for it.
+     */
+    public int getMaxInputLength() {
+        return synonymMap.fst == null ? 0 : getAutomaton().getMaxDepth();
+    }
+
+    /**
+     * Returns the Aho-Corasick automaton of the entries, built with the dictionary if asked, or else on first use.
+     */
+    public SynonymAutomaton getAutomaton() {
+        SynonymAutomaton result = automaton;
+        if (result == null) {
+            synchronized (this) {
+                result = automaton;
+                if (result == null) {
+                    result = buildAutomaton();
+                    automaton = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private SynonymAutomaton buildAutomaton() {
+        final Object event = SynonymEvents.INSTANCE.beginAutomatonBuild();
+        final SynonymAutomaton result = new SynonymAutomaton(synonymMap.fst);
+        SynonymEvents.INSTANCE.endAutomatonBuild(event, result);
+        return result;
+    }
+
+    /**
+     * Returns the arc leaving the root of the FST for the given first code point, or null if no entry starts with it.
+     * The returned arc is shared; copy it with {@link FST.Arc#copyFrom(FST.Arc)} before following it.
+     */
+    public FST.Arc<BytesRef> getRootArc(final int label) {
+        final int index = rootArcIndexes.get(label);
+        return index < 0 ? null : rootArcs[index];
+    }
+
+    /**
+     * Returns the shared pool holding the chars of all output words.
+     * Use {@link #getWordOffset(int)} and {@link #getWordLength(int)} to locate a word.
+     */
+    public char[] getWordChars() {
+        return wordChars;
+    }
+
+    public int getWordOffset(final int wordId) {
+        return wordOffsets[wordId];
+    }
+
+    public int getWordLength(final int wordId) {
+        return wordLengths[wordId];
+    }
+
+    public int getWordCount() {
+        return wordOffsets.length;
+    }
+}
@@ -0,0 +1,69 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.elasticsearch.common.logging.Loggers;
+
+/**
+ * Emits JDK Flight Recorder events for dictionary builds, reloads and slow analysis.
+ * On a JVM without JFR every method does nothing, so the event classes are only loaded when JFR is available.
+ * A begin method returns a handle, or null when the event is disabled, which is passed to the matching end method.
+ */
+class SynonymEvents {
+
+    static final SynonymEvents INSTANCE = create();
+
+    private static SynonymEvents create() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (SynonymEvents) Class.forName("org.codelibs.elasticsearch.synonym.analysis.JfrSynonymEvents")
+                    .getDeclaredConstructor().newInstance();
+        } catch (final ClassNotFoundException e) {
+            // no JFR, or built on JDK 8
+            return new SynonymEvents();
+        } catch (final ReflectiveOperationException | LinkageError | SecurityException e) {
+            Loggers.getLogger(SynonymEvents.class).warn("Failed to initialize JFR events.", e);
+            return new SynonymEvents();
+        }
+    }
+
+    Object beginBuild() {
+        return null;
+    }
+
+    /**
+     * @param source the synonyms path, or "synonyms" for inline rules
+     * @param lines the lines of rules read
+     * @param chars the chars of rules read
+     * @param parseNanos time to parse and analyze the rules
+     * @param fstNanos time to build the FST
+     * @param dictionaryNanos time to build the {@link SynonymDictionary}
+     */
+    void endBuild(final Object event, final String source, final boolean reload, final int lines, final long chars,
+            final SynonymMap map, final long parseNanos, final long fstNanos, final long dictionaryNanos) {
+        // nothing
+    }
+
+    Object beginAutomatonBuild() {
+        return null;
+    }
+
+    void endAutomatonBuild(final Object event, final SynonymAutomaton automaton) {
+        // nothing
+    }
+
+    Object beginReload() {
+        return null;
+    }
+
+    void endReload(final Object event, final String component, final long lastModified) {
+        // nothing
+    }
+
+    Object beginAnalysis() {
+        return null;
+    }
+
+    void endAnalysis(final Object event, final String component, final int inputLength, final int tokens, final int synonymTokens) {
+        // nothing
+    }
+}
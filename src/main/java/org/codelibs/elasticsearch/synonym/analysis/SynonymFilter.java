@@ -78,6 +78,15 @@ import org.apache.lucene.util.fst.FST;
  * TokenStream (and index) cannot yet represent an arbitrary
  * graph.</p>
  *
+ * <p>In graph mode, the output of a match is a correct
+ * graph instead: output tokens longer than the matched input
+ * get their own positions after the last input token, and
+ * {@link PositionLengthAttribute} is set on both the original
+ * and the output tokens, so that every path through the match
+ * ends at the same position.  Such a stream can be consumed by
+ * graph aware query parsers, but like Lucene's
+ * SynonymGraphFilter it should not be indexed as is.</p>
+ *
  * <p><b>NOTE</b>: If multiple incoming tokens arrive on the
  * same position, only the first token at that position is
  * used for parsing.  Subsequent tokens simply pass through
@@ -115,14 +124,27 @@ public final class SynonymFilter extends TokenFilter {
 
   private long lastModified;
 
-  private SynonymMap synonyms = null;
+  private SynonymDictionary synonyms = null;
 
-  private final boolean ignoreCase;
+  // Folds the code points looked up in the FST:
+  private final SynonymNormalizer matchNormalizer;
+  // Folds the text of input tokens, if the normalization
+  // profile applies to the emitted text:
+  private final SynonymNormalizer textNormalizer;
   private final int rollBufferSize;
 
+  private final int maxExpansionsPerMatch;
+  private final int maxSynonymTokensPerDoc;
+  private final SynonymStats stats;
+
+  // How many synonym tokens were produced since reset():
+  private int synonymTokenCount;
+
   private int captureCount;
 
-  // TODO: we should set PositionLengthAttr too...
+  // In graph mode, PositionLengthAttr is set so that the
+  // output is a valid token graph:
+  private final boolean graph;
 
   private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
   private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
@@ -149,9 +171,12 @@ public final class SynonymFilter extends TokenFilter {
     boolean consumed = true;
     int startOffset;
     int endOffset;
+    // Added to the position length of this token in graph mode:
+    int extraPosLength;
 
     public void reset() {
       state = null;
+      extraPosLength = 0;
       consumed = true;
       keepOrig = false;
       matched = false;
@@ -168,27 +193,36 @@ public final class SynonymFilter extends TokenFilter {
     CharsRefBuilder[] outputs;
     int[] endOffsets;
     int[] posLengths;
+    // Positions after this one, for outputs chained past the
+    // last input token of a match in graph mode:
+    int[] positionOffsets;
     int upto;
     int count;
     int posIncr = 1;
     int lastEndOffset;
     int lastPosLength;
+    int lastPosIncr;
+    int lastPositionOffset;
 
     public PendingOutputs() {
       outputs = new CharsRefBuilder[1];
       endOffsets = new int[1];
       posLengths = new int[1];
+      positionOffsets = new int[1];
     }
 
     public void reset() {
       upto = count = 0;
       posIncr = 1;
+      lastPositionOffset = 0;
     }
 
     public CharsRef pullNext() {
       assert upto < count;
       lastEndOffset = endOffsets[upto];
       lastPosLength = posLengths[upto];
+      lastPosIncr = posIncr + positionOffsets[upto] - lastPositionOffset;
+      lastPositionOffset = positionOffsets[upto];
       final CharsRefBuilder result = outputs[upto++];
       posIncr = 0;
       if (upto == count) {
@@ -205,7 +239,12 @@ public final class SynonymFilter extends TokenFilter {
       return lastPosLength;
     }
 
-    public void add(final char[] output, final int offset, final int len, final int endOffset, final int posLength) {
+    public int getLastPosIncr() {
+      return lastPosIncr;
+    }
+
+    public void add(final char[] output, final int offset, final int len, final int endOffset, final int posLength,
+        final int positionOffset) {
       if (count == outputs.length) {
         outputs = Arrays.copyOf(outputs, ArrayUtil.oversize(1+count, RamUsageEstimator.NUM_BYTES_OBJECT_REF));
       }
@@ -219,6 +258,11 @@ public final class SynonymFilter extends TokenFilter {
         System.arraycopy(posLengths, 0, next, 0, count);
         posLengths = next;
       }
+      if (count == positionOffsets.length) {
+        final int[] next = new int[ArrayUtil.oversize(1+count, Integer.BYTES)];
+        System.arraycopy(positionOffsets, 0, next, 0, count);
+        positionOffsets = next;
+      }
       if (outputs[count] == null) {
         outputs[count] = new CharsRefBuilder();
       }
@@ -228,12 +272,24 @@ public final class SynonymFilter extends TokenFilter {
       // which case we use X as the endOffset for this output
       endOffsets[count] = endOffset;
       posLengths[count] = posLength;
+      positionOffsets[count] = positionOffset;
       count++;
     }
   };
 
   private final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
 
+  // Outputs of the current match that fit in the budget:
+  private int[] outputWordIDs = new int[4];
+  private int[] outputTokenCounts = new int[4];
+
+  // Output tokens chained past the last input token of the
+  // current match, in graph mode:
+  private int[] chainStarts = new int[4];
+  private int[] chainLengths = new int[4];
+  private int[] chainPositions = new int[4];
+  private int[] chainPosLengths = new int[4];
+
   // Rolling buffer, holding stack of pending synonym
   // outputs, indexed by position:
   private final PendingOutputs[] futureOutputs;
@@ -253,9 +309,39 @@ public final class SynonymFilter extends TokenFilter {
 
   private FST.BytesReader fstReader;
 
+  // Sampled per-rule hit counting; null when disabled:
+  private SynonymRuleHits ruleHits;
+
+  private SynonymAutomaton ruleAutomaton;
+
+  private int ruleSampleCount;
+
+  // Tokens returned since reset(), and the JFR event of the
+  // current stream, or null:
+  private int tokenCount;
+
+  private Object analysisEvent;
+
+  // Lookups started and arcs followed in the FST since
+  // creation, for profiling:
+  private long lookupCount;
+
+  private long arcCount;
+
+  private SynonymSlowLog slowLog;
+
+  private SynonymEvents events = SynonymEvents.INSTANCE;
+
+  // Start of the current stream when timed for the slowlog, or -1,
+  // and the input terms kept for the log:
+  private long slowLogStart = -1;
+
+  private StringBuilder slowLogSource;
+
+  // Chars of the input tokens read in the current stream,
+  // for the slowlog and JFR:
+  private int inputLength;
 
-  private final BytesRef scratchBytes = new BytesRef();
-  private final CharsRefBuilder scratchChars = new CharsRefBuilder();
 
   /**
    * @param input input tokenstream
@@ -265,7 +351,37 @@ public final class SynonymFilter extends TokenFilter {
    *                   the input entries when you create the {@link SynonymMap}
    */
   public SynonymFilter(final TokenStream input, final SynonymLoader synonymLoader, final boolean ignoreCase) {
+    this(input, synonymLoader, SynonymNormalizer.forMatching(ignoreCase), Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(),
+        false);
+  }
+
+  /**
+   * @param input input tokenstream
+   * @param synonymLoader synonym loader
+   * @param normalizer folds input for matching. The {@link SynonymMap} must be
+   *                   built from entries folded by the same normalizer.
+   * @param maxExpansionsPerMatch maximum number of outputs added for a single match;
+   *                   remaining outputs of the rule are skipped
+   * @param maxSynonymTokensPerDoc maximum number of synonym tokens added between
+   *                   {@link #reset()} calls; once reached, no further matching is done
+   * @param stats receives limit hits and, if enabled, sampled rule hits
+   * @param graph if true, position lengths are set so that multi-word
+   *                   synonyms form a valid token graph
+   */
+  public SynonymFilter(final TokenStream input, final SynonymLoader synonymLoader, final SynonymNormalizer normalizer,
+      final int maxExpansionsPerMatch, final int maxSynonymTokensPerDoc, final SynonymStats stats, final boolean graph) {
     super(input);
+    this.graph = graph;
+    if (normalizer.isNormalizeText()) {
+      this.matchNormalizer = SynonymNormalizer.NONE;
+      this.textNormalizer = normalizer;
+    } else {
+      this.matchNormalizer = normalizer;
+      this.textNormalizer = null;
+    }
+    this.maxExpansionsPerMatch = maxExpansionsPerMatch;
+    this.maxSynonymTokensPerDoc = maxSynonymTokensPerDoc;
+    this.stats = stats;
     if (synonymLoader != null) {
         if (synonymLoader.isReloadable()) {
             this.synonymLoader = synonymLoader;
@@ -274,22 +390,22 @@ public final class SynonymFilter extends TokenFilter {
             this.synonymLoader = null;
             this.lastModified = System.currentTimeMillis();
         }
-        this.synonyms = synonymLoader.getSynonymMap();
+        this.synonyms = synonymLoader.getSynonymDictionary();
     }
     if (synonyms == null) {
         throw new IllegalArgumentException("synonyms must be non-null");
     }
-    this.ignoreCase = ignoreCase;
-    this.fst = synonyms.fst;
+    this.fst = synonyms.getFst();
     if (fst == null) {
       throw new IllegalArgumentException("fst must be non-null");
     }
     this.fstReader = fst.getBytesReader();
+    setRuleHits();
 
     // Must be 1+ so that when roll buffer is at full
     // lookahead we can distinguish this full buffer from
     // the empty buffer:
-    rollBufferSize = 1+synonyms.maxHorizontalContext;
+    rollBufferSize = 1+synonyms.getMaxHorizontalContext();
 
     futureInputs = new PendingInput[rollBufferSize];
     futureOutputs = new PendingOutputs[rollBufferSize];
@@ -348,6 +464,23 @@ public final class SynonymFilter extends TokenFilter {
     assert scratchArc.output == fst.outputs.getNoOutput();
 
     int tokenCount = 0;
+    int arcs = 0;
+
+    // Once the per-document budget is used up, every token
+    // simply passes through without walking the FST:
+    final boolean exhausted = synonymTokenCount >= maxSynonymTokensPerDoc;
+    if (!exhausted) {
+      lookupCount++;
+    }
+
+    // When this lookup is sampled, the automaton is walked
+    // along the FST to find the entry of the match:
+    int ruleState = -1;
+    int matchRuleState = -1;
+    if (ruleHits != null && !exhausted && ++ruleSampleCount >= ruleHits.getSampleInterval()) {
+      ruleSampleCount = 0;
+      ruleState = 0;
+    }
 
     byToken:
     while(true) {
@@ -376,7 +509,19 @@ public final class SynonymFilter extends TokenFilter {
           if (input.incrementToken()) {
             buffer = termAtt.buffer();
             bufferLen = termAtt.length();
+            if (textNormalizer != null) {
+              // Fold before the state may be captured, so the
+              // token is emitted with the folded text too:
+              textNormalizer.fold(buffer, 0, bufferLen);
+            }
             final PendingInput input = futureInputs[nextWrite];
+            inputLength += bufferLen;
+            if (slowLogStart >= 0 && slowLogSource.length() < slowLog.getMaxSourceCharsToLog()) {
+              if (slowLogSource.length() > 0) {
+                slowLogSource.append(' ');
+              }
+              slowLogSource.append(buffer, 0, Math.min(bufferLen, slowLog.getMaxSourceCharsToLog() - slowLogSource.length()));
+            }
             lastStartOffset = input.startOffset = offsetAtt.startOffset();
             lastEndOffset = input.endOffset = offsetAtt.endOffset();
             inputEndOffset = input.endOffset;
@@ -404,15 +549,32 @@ public final class SynonymFilter extends TokenFilter {
 
       tokenCount++;
 
+      if (exhausted) {
+        break;
+      }
+
       // Run each char in this token through the FST:
       int bufUpto = 0;
       while(bufUpto < bufferLen) {
         final int codePoint = Character.codePointAt(buffer, bufUpto, bufferLen);
-        if (fst.findTargetArc(ignoreCase ? Character.toLowerCase(codePoint) : codePoint, scratchArc, scratchArc, fstReader) == null) {
+        arcs++;
+        if (tokenCount == 1 && bufUpto == 0) {
+          // First code point: one lookup in the root arc
+          // table instead of searching the root's arcs:
+          final FST.Arc<BytesRef> rootArc = synonyms.getRootArc(matchNormalizer.fold(codePoint));
+          if (rootArc == null) {
+            break byToken;
+          }
+          scratchArc.copyFrom(rootArc);
+        } else if (fst.findTargetArc(matchNormalizer.fold(codePoint), scratchArc, scratchArc, fstReader) == null) {
           //System.out.println("    stop");
           break byToken;
         }
 
+        if (ruleState >= 0) {
+          ruleState = ruleAutomaton.getChild(ruleState, matchNormalizer.fold(codePoint));
+        }
+
         // Accum the output
         pendingOutput = fst.outputs.add(pendingOutput, scratchArc.output);
         //System.out.println("    char=" + buffer[bufUpto] + " output=" + pendingOutput + " arc.output=" + scratchArc.output);
@@ -425,11 +587,13 @@ public final class SynonymFilter extends TokenFilter {
         matchOutput = fst.outputs.add(pendingOutput, scratchArc.nextFinalOutput);
         matchInputLength = tokenCount;
         matchEndOffset = inputEndOffset;
+        matchRuleState = ruleState;
         //System.out.println("  found matchLength=" + matchInputLength + " output=" + matchOutput);
       }
 
       // See if the FST wants to continue matching (ie, needs to
       // see the next input token):
+      arcs++;
       if (fst.findTargetArc(SynonymMap.WORD_SEPARATOR, scratchArc, scratchArc, fstReader) == null) {
         // No further rules can match here; we're done
         // searching for matching rules starting at the
@@ -439,6 +603,9 @@ public final class SynonymFilter extends TokenFilter {
         // More matching is possible -- accum the output (if
         // any) of the WORD_SEP arc:
         pendingOutput = fst.outputs.add(pendingOutput, scratchArc.output);
+        if (ruleState >= 0) {
+          ruleState = ruleAutomaton.getChild(ruleState, SynonymMap.WORD_SEPARATOR);
+        }
         if (nextRead == nextWrite) {
           capture();
         }
@@ -447,6 +614,8 @@ public final class SynonymFilter extends TokenFilter {
       curNextRead = rollIncr(curNextRead);
     }
 
+    arcCount += arcs;
+
     if (nextRead == nextWrite && !finished) {
       //System.out.println("  skip write slot=" + nextWrite);
       nextWrite = rollIncr(nextWrite);
@@ -455,6 +624,9 @@ public final class SynonymFilter extends TokenFilter {
     if (matchOutput != null) {
       //System.out.println("  add matchLength=" + matchInputLength + " output=" + matchOutput);
       inputSkipCount = matchInputLength;
+      if (matchRuleState >= 0) {
+        ruleHits.onHit(ruleAutomaton.getEntry(matchRuleState));
+      }
       addOutput(matchOutput, matchInputLength, matchEndOffset);
     } else if (nextRead != nextWrite) {
       // Even though we had no match here, we set to 1
@@ -473,46 +645,97 @@ public final class SynonymFilter extends TokenFilter {
     bytesReader.reset(bytes.bytes, bytes.offset, bytes.length);
 
     final int code = bytesReader.readVInt();
-    final boolean keepOrig = (code & 0x1) == 0;
+    boolean keepOrig = (code & 0x1) == 0;
     final int count = code >>> 1;
     //System.out.println("  addOutput count=" + count + " keepOrig=" + keepOrig);
+    // Output words are decoded once per dictionary; read
+    // them straight from the shared char pool:
+    final char[] wordChars = synonyms.getWordChars();
+
+    // First pick the outputs that fit in the expansion
+    // budget; they are skipped in rule order so the result
+    // is deterministic:
+    int added = 0;
+    int maxOutputTokens = 0;
     for(int outputIDX=0;outputIDX<count;outputIDX++) {
-      synonyms.words.get(bytesReader.readVInt(),
-                         scratchBytes);
-      //System.out.println("    outIDX=" + outputIDX + " bytes=" + scratchBytes.length);
-      scratchChars.copyUTF8Bytes(scratchBytes);
-      int lastStart = 0;
-      final int chEnd = lastStart + scratchChars.length();
-      int outputUpto = nextRead;
-      for(int chIDX=lastStart;chIDX<=chEnd;chIDX++) {
-        if (chIDX == chEnd || scratchChars.charAt(chIDX) == SynonymMap.WORD_SEPARATOR) {
-          final int outputLen = chIDX - lastStart;
-          // Caller is not allowed to have empty string in
-          // the output:
-          assert outputLen > 0: "output contains empty string: " + scratchChars;
-          final int endOffset;
-          final int posLen;
-          if (chIDX == chEnd && lastStart == 0) {
-            // This rule had a single output token, so, we set
-            // this output's endOffset to the current
-            // endOffset (ie, endOffset of the last input
-            // token it matched):
-            endOffset = matchEndOffset;
-            posLen = keepOrig ? matchInputLength : 1;
-          } else {
-            // This rule has more than one output token; we
-            // can't pick any particular endOffset for this
-            // case, so, we inherit the endOffset for the
-            // input token which this output overlaps:
-            endOffset = -1;
-            posLen = 1;
+      final int wordID = bytesReader.readVInt();
+      if (outputIDX >= maxExpansionsPerMatch) {
+        stats.onMatchLimit();
+        break;
+      }
+      final int wordStart = synonyms.getWordOffset(wordID);
+      final int chEnd = wordStart + synonyms.getWordLength(wordID);
+      int outputTokens = 1;
+      for(int chIDX=wordStart;chIDX<chEnd;chIDX++) {
+        if (wordChars[chIDX] == SynonymMap.WORD_SEPARATOR) {
+          outputTokens++;
+        }
+      }
+      if (synonymTokenCount + outputTokens > maxSynonymTokensPerDoc) {
+        if (synonymTokenCount < maxSynonymTokensPerDoc) {
+          synonymTokenCount = maxSynonymTokensPerDoc;
+          stats.onDocLimit();
+        }
+        break;
+      }
+      synonymTokenCount += outputTokens;
+      if (synonymTokenCount == maxSynonymTokensPerDoc) {
+        stats.onDocLimit();
+      }
+      if (added == outputWordIDs.length) {
+        outputWordIDs = ArrayUtil.grow(outputWordIDs, added + 1);
+        outputTokenCounts = ArrayUtil.grow(outputTokenCounts, added + 1);
+      }
+      outputWordIDs[added] = wordID;
+      outputTokenCounts[added] = outputTokens;
+      added++;
+      maxOutputTokens = Math.max(maxOutputTokens, outputTokens);
+    }
+
+    if (added == 0) {
+      // Every output was skipped; keep the input tokens so the
+      // text does not disappear:
+      keepOrig = true;
+    }
+
+    if (graph) {
+      addGraphOutput(added, keepOrig, maxOutputTokens, matchInputLength, matchEndOffset);
+    } else {
+      for(int outputIDX=0;outputIDX<added;outputIDX++) {
+        final int wordStart = synonyms.getWordOffset(outputWordIDs[outputIDX]);
+        int lastStart = wordStart;
+        final int chEnd = lastStart + synonyms.getWordLength(outputWordIDs[outputIDX]);
+        int outputUpto = nextRead;
+        for(int chIDX=lastStart;chIDX<=chEnd;chIDX++) {
+          if (chIDX == chEnd || wordChars[chIDX] == SynonymMap.WORD_SEPARATOR) {
+            final int outputLen = chIDX - lastStart;
+            // Caller is not allowed to have empty string in
+            // the output:
+            assert outputLen > 0: "output contains empty string: " + new String(wordChars, wordStart, chEnd - wordStart);
+            final int endOffset;
+            final int posLen;
+            if (chIDX == chEnd && lastStart == wordStart) {
+              // This rule had a single output token, so, we set
+              // this output's endOffset to the current
+              // endOffset (ie, endOffset of the last input
+              // token it matched):
+              endOffset = matchEndOffset;
+              posLen = keepOrig ? matchInputLength : 1;
+            } else {
+              // This rule has more than one output token; we
+              // can't pick any particular endOffset for this
+              // case, so, we inherit the endOffset for the
+              // input token which this output overlaps:
+              endOffset = -1;
+              posLen = 1;
+            }
+            futureOutputs[outputUpto].add(wordChars, lastStart, outputLen, endOffset, posLen, 0);
+            //System.out.println("      " + new String(wordChars, lastStart, outputLen) + " outputUpto=" + outputUpto);
+            lastStart = 1+chIDX;
+            //System.out.println("  slot=" + outputUpto + " keepOrig=" + keepOrig);
+            outputUpto = rollIncr(outputUpto);
+            assert futureOutputs[outputUpto].posIncr == 1: "outputUpto=" + outputUpto + " vs nextWrite=" + nextWrite;
           }
-          futureOutputs[outputUpto].add(scratchChars.chars(), lastStart, outputLen, endOffset, posLen);
-          //System.out.println("      " + new String(scratchChars.chars, lastStart, outputLen) + " outputUpto=" + outputUpto);
-          lastStart = 1+chIDX;
-          //System.out.println("  slot=" + outputUpto + " keepOrig=" + keepOrig);
-          outputUpto = rollIncr(outputUpto);
-          assert futureOutputs[outputUpto].posIncr == 1: "outputUpto=" + outputUpto + " vs nextWrite=" + nextWrite;
         }
       }
     }
@@ -525,6 +748,83 @@ public final class SynonymFilter extends TokenFilter {
     }
   }
 
+  // Places the picked outputs so that every path through the
+  // match, including the kept original, covers the same
+  // positions.  Output token i goes to the position of input
+  // token i; when an output is longer than the input, its
+  // remaining tokens are chained on new positions after the
+  // last input token, instead of being stacked on top of the
+  // following input tokens:
+  private void addGraphOutput(final int added, final boolean keepOrig, final int maxOutputTokens,
+      final int matchInputLength, final int matchEndOffset) {
+    final char[] wordChars = synonyms.getWordChars();
+    // Number of positions every path through the match spans;
+    // without keepOrig, input positions that no output covers
+    // are dropped:
+    final int span = keepOrig ? Math.max(matchInputLength, maxOutputTokens) : maxOutputTokens;
+    final int lastInputIDX = matchInputLength - 1;
+    int lastUpto = nextRead;
+    for(int idx=0;idx<lastInputIDX;idx++) {
+      lastUpto = rollIncr(lastUpto);
+    }
+
+    int chainCount = 0;
+    for(int outputIDX=0;outputIDX<added;outputIDX++) {
+      final int wordStart = synonyms.getWordOffset(outputWordIDs[outputIDX]);
+      final int chEnd = wordStart + synonyms.getWordLength(outputWordIDs[outputIDX]);
+      final int lastTokenIDX = outputTokenCounts[outputIDX] - 1;
+      int lastStart = wordStart;
+      int tokenIDX = 0;
+      int outputUpto = nextRead;
+      for(int chIDX=lastStart;chIDX<=chEnd;chIDX++) {
+        if (chIDX == chEnd || wordChars[chIDX] == SynonymMap.WORD_SEPARATOR) {
+          final int outputLen = chIDX - lastStart;
+          assert outputLen > 0: "output contains empty string: " + new String(wordChars, wordStart, chEnd - wordStart);
+          final int endOffset = tokenIDX == lastTokenIDX ? matchEndOffset : -1;
+          final int posLen = tokenIDX == lastTokenIDX ? span - tokenIDX : 1;
+          if (tokenIDX <= lastInputIDX) {
+            futureOutputs[outputUpto].add(wordChars, lastStart, outputLen, endOffset, posLen, 0);
+            if (tokenIDX < lastInputIDX) {
+              outputUpto = rollIncr(outputUpto);
+            }
+          } else {
+            // Chained after the last input position; added
+            // below, once all tokens at that position are in:
+            if (chainCount == chainStarts.length) {
+              chainStarts = ArrayUtil.grow(chainStarts, chainCount + 1);
+              chainLengths = ArrayUtil.grow(chainLengths, chainCount + 1);
+              chainPositions = ArrayUtil.grow(chainPositions, chainCount + 1);
+              chainPosLengths = ArrayUtil.grow(chainPosLengths, chainCount + 1);
+            }
+            chainStarts[chainCount] = lastStart;
+            chainLengths[chainCount] = outputLen;
+            chainPositions[chainCount] = tokenIDX - lastInputIDX;
+            chainPosLengths[chainCount] = posLen;
+            chainCount++;
+          }
+          lastStart = 1+chIDX;
+          tokenIDX++;
+        }
+      }
+    }
+
+    for(int position=1;position<=maxOutputTokens-matchInputLength;position++) {
+      for(int chainIDX=0;chainIDX<chainCount;chainIDX++) {
+        if (chainPositions[chainIDX] == position) {
+          // endOffset is inherited from the last input token,
+          // which is the endOffset of the match:
+          futureOutputs[lastUpto].add(wordChars, chainStarts[chainIDX], chainLengths[chainIDX],
+              -1, chainPosLengths[chainIDX], position);
+        }
+      }
+    }
+
+    if (keepOrig) {
+      // The last original token spans the chained positions:
+      futureInputs[lastUpto].extraPosLength = span - matchInputLength;
+    }
+  }
+
   // ++ mod rollBufferSize
   private int rollIncr(int count) {
     count++;
@@ -571,6 +871,9 @@ public final class SynonymFilter extends TokenFilter {
             // but didn't capture:
             assert inputSkipCount == 1: "inputSkipCount=" + inputSkipCount + " nextRead=" + nextRead;
           }
+          if (input.extraPosLength > 0) {
+            posLenAtt.setPositionLength(posLenAtt.getPositionLength() + input.extraPosLength);
+          }
           input.reset();
           if (outputs.count > 0) {
             outputs.posIncr = 0;
@@ -579,13 +882,14 @@ public final class SynonymFilter extends TokenFilter {
             inputSkipCount--;
           }
           //System.out.println("  return token=" + termAtt.toString());
+          tokenCount++;
           return true;
         } else if (outputs.upto < outputs.count) {
           // Still have pending outputs to replay at this
           // position
           input.reset();
-          final int posIncr = outputs.posIncr;
           final CharsRef output = outputs.pullNext();
+          final int posIncr = outputs.getLastPosIncr();
           clearAttributes();
           termAtt.copyBuffer(output.chars, output.offset, output.length);
           typeAtt.setType(TYPE_SYNONYM);
@@ -603,6 +907,7 @@ public final class SynonymFilter extends TokenFilter {
             inputSkipCount--;
           }
           //System.out.println("  return token=" + termAtt.toString());
+          tokenCount++;
           return true;
         } else {
           // Done with the buffered input and all outputs at
@@ -618,8 +923,8 @@ public final class SynonymFilter extends TokenFilter {
         // input stream, enumerate them now:
         final PendingOutputs outputs = futureOutputs[nextRead];
         if (outputs.upto < outputs.count) {
-          final int posIncr = outputs.posIncr;
           final CharsRef output = outputs.pullNext();
+          final int posIncr = outputs.getLastPosIncr();
           futureInputs[nextRead].reset();
           if (outputs.count == 0) {
             nextWrite = nextRead = rollIncr(nextRead);
@@ -632,6 +937,7 @@ public final class SynonymFilter extends TokenFilter {
           //System.out.println("  set posIncr=" + outputs.posIncr + " outputs=" + outputs);
           posIncrAtt.setPositionIncrement(posIncr);
           //System.out.println("  return token=" + termAtt.toString());
+          tokenCount++;
           return true;
         } else {
           return false;
@@ -643,10 +949,67 @@ public final class SynonymFilter extends TokenFilter {
     }
   }
 
+  private void setRuleHits() {
+    ruleHits = stats.getRuleHits(synonyms);
+    ruleAutomaton = ruleHits == null ? null : synonyms.getAutomaton();
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    events.endAnalysis(analysisEvent, "synonym_filter", inputLength, tokenCount, synonymTokenCount);
+    analysisEvent = null;
+    if (slowLogStart >= 0) {
+      slowLog.onAnalysis(System.nanoTime() - slowLogStart, inputLength, tokenCount, slowLogSource);
+      slowLogStart = -1;
+    }
+  }
+
+  /**
+   * Sets the slowlog to report streams taking longer than its thresholds to, or null.
+   */
+  public void setSlowLog(final SynonymSlowLog slowLog) {
+    this.slowLog = slowLog;
+  }
+
+  /**
+   * Sets the JFR events of the streams, e.g. ones doing nothing for profiling.
+   */
+  void setEvents(final SynonymEvents events) {
+    this.events = events;
+  }
+
+  /**
+   * Returns the number of dictionary lookups, one per input position, since this filter was created.
+   */
+  public long getLookupCount() {
+    return lookupCount;
+  }
+
+  /**
+   * Returns the number of FST arcs looked up since this filter was created.
+   */
+  public long getArcCount() {
+    return arcCount;
+  }
+
   @Override
   public void reset() throws IOException {
     super.reset();
+    analysisEvent = events.beginAnalysis();
+    if (slowLog != null && slowLog.isEnabled()) {
+      slowLogStart = System.nanoTime();
+      if (slowLogSource == null) {
+        slowLogSource = new StringBuilder();
+      }
+      slowLogSource.setLength(0);
+    } else {
+      slowLogStart = -1;
+    }
     captureCount = 0;
+    synonymTokenCount = 0;
+    tokenCount = 0;
+    inputLength = 0;
     finished = false;
     inputSkipCount = 0;
     nextRead = nextWrite = 0;
@@ -664,18 +1027,21 @@ public final class SynonymFilter extends TokenFilter {
     }
 
     if (synonymLoader != null && synonymLoader.isUpdate(lastModified)) {
+        final Object event = events.beginReload();
         lastModified = synonymLoader.getLastModified();
-        final SynonymMap map = synonymLoader.getSynonymMap();
-        if (map != null) {
-            synonyms = map;
-            fst = synonyms.fst;
+        final SynonymDictionary dictionary = synonymLoader.getSynonymDictionary();
+        if (dictionary != null) {
+            synonyms = dictionary;
+            fst = synonyms.getFst();
             if (fst == null) {
                 throw new IllegalArgumentException("fst must be non-null");
             }
             fstReader = fst.getBytesReader();
             scratchArc = new FST.Arc<>();
+            setRuleHits();
             clearAttributes();
         }
+        events.endReload(event, "synonym_filter", lastModified);
     }
   }
 }
\ No newline at end of file
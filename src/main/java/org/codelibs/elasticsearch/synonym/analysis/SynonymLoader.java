@@ -3,6 +3,7 @@ package org.codelibs.elasticsearch.synonym.analysis;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -12,10 +13,8 @@ import java.nio.file.Path;
 import java.util.List;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.core.KeywordTokenizer;
-import org.apache.lucene.analysis.core.LowerCaseFilter;
 import org.apache.lucene.analysis.synonym.SolrSynonymParser;
 import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.analysis.synonym.WordnetSynonymParser;
@@ -33,6 +32,8 @@ public class SynonymLoader {
 
     private final boolean expand;
 
+    private final boolean buildAutomaton;
+
     private long reloadInterval = 0;
 
     private final Environment env;
@@ -43,11 +44,23 @@ public class SynonymLoader {
 
     private volatile SynonymMap synonymMap;
 
+    private volatile SynonymDictionary synonymDictionary;
+
     public SynonymLoader(final Environment env, final Settings settings, final boolean expand, final Analyzer analyzer) {
+        this(env, settings, expand, analyzer, false);
+    }
+
+    /**
+     * @param buildAutomaton builds the {@link SynonymAutomaton} of every (re)loaded dictionary with its FST, so token
+     *            streams never build it
+     */
+    public SynonymLoader(final Environment env, final Settings settings, final boolean expand, final Analyzer analyzer,
+            final boolean buildAutomaton) {
         this.env = env;
         this.settings = settings;
         this.expand = expand;
         this.analyzer = analyzer;
+        this.buildAutomaton = buildAutomaton;
 
         createSynonymMap(false);
     }
@@ -77,13 +90,28 @@ public class SynonymLoader {
         return synonymMap;
     }
 
+    public SynonymDictionary getSynonymDictionary() {
+        final SynonymMap map = getSynonymMap();
+        if (map == null || map.fst == null) {
+            return null;
+        }
+        SynonymDictionary dictionary = synonymDictionary;
+        if (dictionary == null || dictionary.getSynonymMap() != map) {
+            dictionary = new SynonymDictionary(map, buildAutomaton);
+            synonymDictionary = dictionary;
+        }
+        return dictionary;
+    }
+
     protected void createSynonymMap(final boolean reload) {
-        try (Reader rulesReader = getReader(reload)) {
-            if (rulesReader instanceof StringReader && ((StringReader) rulesReader).toString().length() == 0) {
+        final Object event = SynonymEvents.INSTANCE.beginBuild();
+        try (CountingReader rulesReader = new CountingReader(getReader(reload))) {
+            if (rulesReader.isEmpty()) {
                 synonymMap = null;
                 return;
             }
 
+            final long parseStart = System.nanoTime();
             SynonymMap.Builder parser = null;
 
             if ("wordnet".equalsIgnoreCase(settings.get("format"))) {
@@ -94,13 +122,19 @@ public class SynonymLoader {
                 ((SolrSynonymParser) parser).parse(rulesReader);
             }
 
+            final long fstStart = System.nanoTime();
             final SynonymMap localSynonymMap = parser.build();
             if (localSynonymMap.fst == null) {
                 synonymMap = null;
                 return;
             }
 
+            final long dictionaryStart = System.nanoTime();
+            synonymDictionary = new SynonymDictionary(localSynonymMap, buildAutomaton);
             synonymMap = localSynonymMap;
+            SynonymEvents.INSTANCE.endBuild(event, settings.get("synonyms_path", "synonyms"), reload, rulesReader.lines,
+                    rulesReader.chars, localSynonymMap, fstStart - parseStart, dictionaryStart - fstStart,
+                    System.nanoTime() - dictionaryStart);
 
             if (reloadableFile != null) {
                 lastModified = reloadableFile.lastModified();
@@ -161,6 +195,47 @@ public class SynonymLoader {
         return reader;
     }
 
+    // counts the rules read, for the build event
+    private static class CountingReader extends FilterReader {
+
+        int lines;
+
+        long chars;
+
+        CountingReader(final Reader in) {
+            super(in);
+        }
+
+        boolean isEmpty() {
+            return in instanceof StringReader && in.toString().length() == 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c >= 0) {
+                count((char) c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            final int n = super.read(cbuf, off, len);
+            for (int i = 0; i < n; i++) {
+                count(cbuf[off + i]);
+            }
+            return n;
+        }
+
+        private void count(final char c) {
+            chars++;
+            if (c == '\n') {
+                lines++;
+            }
+        }
+    }
+
     public boolean isReloadable() {
         return reloadableFile != null;
     }
@@ -170,12 +245,15 @@ public class SynonymLoader {
     }
 
     protected static Analyzer getAnalyzer(final boolean ignoreCase) {
+        return getAnalyzer(SynonymNormalizer.forMatching(ignoreCase));
+    }
+
+    protected static Analyzer getAnalyzer(final SynonymNormalizer normalizer) {
         return new Analyzer() {
             @Override
             protected TokenStreamComponents createComponents(final String fieldName) {
                 final Tokenizer tokenizer = new KeywordTokenizer();
-                final TokenStream stream = ignoreCase ? new LowerCaseFilter(tokenizer) : tokenizer;
-                return new TokenStreamComponents(tokenizer, stream);
+                return new TokenStreamComponents(tokenizer, normalizer.wrap(tokenizer));
             }
         };
     }
@@ -0,0 +1,203 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Folds characters with a normalization profile (lowercase, NFKC, kana).
+ * The same folding is applied to the rules when the dictionary is built and to the input at match time,
+ * so matching needs no extra filters in the analysis chain.
+ *
+ * <p>BMP characters are folded through a precomputed lookup table with a fast path for ASCII.
+ * The table maps one char to one char, so NFKC mappings that change the length
+ * (e.g. ligatures or half-width voiced sound marks) are not applied, and
+ * supplementary characters are only lowercased.</p>
+ */
+public final class SynonymNormalizer {
+
+    public static final SynonymNormalizer NONE = new SynonymNormalizer(0, false);
+
+    private static final int LOWERCASE = 1;
+
+    private static final int NFKC = 1 << 1;
+
+    private static final int KANA = 1 << 2;
+
+    private static final char[][] TABLES = new char[1 << 3][];
+
+    private final int flags;
+
+    private final boolean normalizeText;
+
+    private final char[] table;
+
+    private SynonymNormalizer(final int flags, final boolean normalizeText) {
+        this.flags = flags;
+        this.normalizeText = normalizeText;
+        this.table = flags == 0 ? null : getTable(flags);
+    }
+
+    /**
+     * Returns a normalizer which only folds case for matching, as {@code ignore_case} does.
+     */
+    public static SynonymNormalizer forMatching(final boolean ignoreCase) {
+        return ignoreCase ? new SynonymNormalizer(LOWERCASE, false) : NONE;
+    }
+
+    /**
+     * Returns a normalizer for the given {@code normalization} profile.
+     * If the profile is empty, only {@code ignoreCase} is applied for matching and the text is left as it is.
+     * Otherwise the text of the emitted tokens is normalized too.
+     */
+    public static SynonymNormalizer of(final List<String> profile, final boolean ignoreCase) {
+        if (profile == null || profile.isEmpty()) {
+            return forMatching(ignoreCase);
+        }
+        int flags = ignoreCase ? LOWERCASE : 0;
+        for (final String name : profile) {
+            switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "lowercase":
+                flags |= LOWERCASE;
+                break;
+            case "nfkc":
+                flags |= NFKC;
+                break;
+            case "kana":
+                flags |= KANA;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown normalization [" + name + "]. It must be one of lowercase, nfkc or kana.");
+            }
+        }
+        return new SynonymNormalizer(flags, true);
+    }
+
+    /**
+     * @return true if the text of tokens is normalized, not only the keys used for matching
+     */
+    public boolean isNormalizeText() {
+        return normalizeText;
+    }
+
+    public boolean isEmpty() {
+        return flags == 0;
+    }
+
+    public int fold(final int codePoint) {
+        if (codePoint < 0x80) {
+            if ((flags & LOWERCASE) != 0 && codePoint >= 'A' && codePoint <= 'Z') {
+                return codePoint + ('a' - 'A');
+            }
+            return codePoint;
+        } else if (flags == 0) {
+            return codePoint;
+        } else if (codePoint < 0x10000) {
+            return table[codePoint];
+        } else if ((flags & LOWERCASE) != 0) {
+            return Character.toLowerCase(codePoint);
+        }
+        return codePoint;
+    }
+
+    /**
+     * Folds the chars in place. The length never changes.
+     */
+    public void fold(final char[] buffer, final int offset, final int length) {
+        if (flags == 0) {
+            return;
+        }
+        final boolean lowercase = (flags & LOWERCASE) != 0;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final char c = buffer[i];
+            if (c < 0x80) {
+                if (lowercase && c >= 'A' && c <= 'Z') {
+                    buffer[i] = (char) (c + ('a' - 'A'));
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(buffer[i + 1])) {
+                if (lowercase) {
+                    final int folded = Character.toLowerCase(Character.toCodePoint(c, buffer[i + 1]));
+                    if (Character.charCount(folded) == 2) {
+                        Character.toChars(folded, buffer, i);
+                    }
+                }
+                i++;
+            } else {
+                buffer[i] = table[c];
+            }
+        }
+    }
+
+    /**
+     * Wraps the stream used to analyze the rules, so the dictionary is built from folded terms.
+     */
+    public TokenStream wrap(final TokenStream stream) {
+        if (flags == 0) {
+            return stream;
+        }
+        return new FoldingFilter(stream, this);
+    }
+
+    private static char[] getTable(final int flags) {
+        synchronized (TABLES) {
+            if (TABLES[flags] == null) {
+                TABLES[flags] = buildTable(flags);
+            }
+            return TABLES[flags];
+        }
+    }
+
+    private static char[] buildTable(final int flags) {
+        final char[] table = new char[0x10000];
+        for (int c = 0; c < table.length; c++) {
+            int folded = c;
+            if (!Character.isSurrogate((char) c)) {
+                if ((flags & NFKC) != 0) {
+                    final String normalized = Normalizer.normalize(String.valueOf((char) c), Normalizer.Form.NFKC);
+                    if (normalized.length() == 1) {
+                        folded = normalized.charAt(0);
+                    }
+                }
+                if ((flags & LOWERCASE) != 0) {
+                    final int lowerCase = Character.toLowerCase(folded);
+                    if (lowerCase < 0x10000) {
+                        folded = lowerCase;
+                    }
+                }
+                if ((flags & KANA) != 0 && folded >= 0x30A1 && folded <= 0x30F6) {
+                    // katakana to hiragana
+                    folded -= 0x60;
+                }
+            }
+            table[c] = (char) folded;
+        }
+        return table;
+    }
+
+    private static final class FoldingFilter extends TokenFilter {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        private final SynonymNormalizer normalizer;
+
+        FoldingFilter(final TokenStream input, final SynonymNormalizer normalizer) {
+            super(input);
+            this.normalizer = normalizer;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (input.incrementToken()) {
+                normalizer.fold(termAtt.buffer(), 0, termAtt.length());
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ObjIntConsumer;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+
+/**
+ * Hits of the entries of one {@link SynonymDictionary}, counted by the token streams sharing a {@link SynonymStats}.
+ * Only one in {@code sampleInterval} lookups is counted, and the hits are scaled back, so they are estimates.
+ */
+public class SynonymRuleHits {
+
+    private final SynonymDictionary dictionary;
+
+    private final int sampleInterval;
+
+    private final AtomicLongArray hits;
+
+    SynonymRuleHits(final SynonymDictionary dictionary, final int sampleInterval) {
+        this.dictionary = dictionary;
+        this.sampleInterval = sampleInterval;
+        hits = new AtomicLongArray(dictionary.getAutomaton().getEntryCount());
+    }
+
+    public SynonymDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Counts a sampled hit of the entry, numbered as in {@link SynonymAutomaton#getEntry(int)}.
+     */
+    public void onHit(final int entry) {
+        hits.incrementAndGet(entry);
+    }
+
+    /**
+     * Returns the estimated number of hits of the entry.
+     */
+    public long getHits(final int entry) {
+        return hits.get(entry) * sampleInterval;
+    }
+
+    public int getEntryCount() {
+        return hits.length();
+    }
+
+    /**
+     * Returns the entries with the most hits, most first, at most the given number.
+     */
+    public int[] getTopEntries(final int size) {
+        // the least hits first, and the later entry first among ties, so the earlier entries are kept
+        final PriorityQueue<long[]> queue = new PriorityQueue<>(
+                (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+        for (int entry = 0; entry < hits.length() && size > 0; entry++) {
+            final long count = hits.get(entry);
+            if (count == 0) {
+                continue;
+            }
+            if (queue.size() < size) {
+                queue.add(new long[] { count, entry });
+            } else if (count > queue.peek()[0]) {
+                queue.poll();
+                queue.add(new long[] { count, entry });
+            }
+        }
+        final int[] entries = new int[queue.size()];
+        for (int i = entries.length - 1; i >= 0; i--) {
+            entries[i] = (int) queue.poll()[1];
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of entries never sampled. With a sample interval above 1, an entry hit now and then may be one of them.
+     */
+    public int getUnsampledEntryCount() {
+        int count = 0;
+        for (int entry = 0; entry < hits.length(); entry++) {
+            if (hits.get(entry) == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Passes the input of every entry, with words separated by a space, and its number to the consumer.
+     */
+    public void forEachEntry(final ObjIntConsumer<String> consumer) {
+        try {
+            final IntsRefFSTEnum<?> fstEnum = new IntsRefFSTEnum<>(dictionary.getFst());
+            final StringBuilder sb = new StringBuilder();
+            int entry = 0;
+            IntsRefFSTEnum.InputOutput<?> inputOutput;
+            while ((inputOutput = fstEnum.next()) != null) {
+                final IntsRef input = inputOutput.input;
+                sb.setLength(0);
+                for (int i = 0; i < input.length; i++) {
+                    final int label = input.ints[input.offset + i];
+                    if (label == SynonymMap.WORD_SEPARATOR) {
+                        sb.append(' ');
+                    } else {
+                        sb.appendCodePoint(label);
+                    }
+                }
+                consumer.accept(sb.toString(), entry++);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to read entries.", e);
+        }
+    }
+}
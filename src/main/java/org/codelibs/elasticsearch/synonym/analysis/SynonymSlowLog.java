@@ -0,0 +1,180 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.IndexSettings;
+
+/**
+ * Logs token streams of a synonym tokenizer or filter taking longer than the thresholds from reset() to end(),
+ * with the thresholds set per index like the search slowlog.
+ */
+public class SynonymSlowLog {
+
+    public static final String INDEX_SYNONYM_SLOWLOG_PREFIX = "index.synonym.slowlog";
+
+    public static final Setting<TimeValue> INDEX_SYNONYM_SLOWLOG_THRESHOLD_WARN_SETTING = thresholdSetting("warn");
+
+    public static final Setting<TimeValue> INDEX_SYNONYM_SLOWLOG_THRESHOLD_INFO_SETTING = thresholdSetting("info");
+
+    public static final Setting<TimeValue> INDEX_SYNONYM_SLOWLOG_THRESHOLD_DEBUG_SETTING = thresholdSetting("debug");
+
+    public static final Setting<TimeValue> INDEX_SYNONYM_SLOWLOG_THRESHOLD_TRACE_SETTING = thresholdSetting("trace");
+
+    public static final Setting<Integer> INDEX_SYNONYM_SLOWLOG_MAX_SOURCE_CHARS_TO_LOG_SETTING =
+            Setting.intSetting(INDEX_SYNONYM_SLOWLOG_PREFIX + ".source", 200, 0, Property.Dynamic, Property.IndexScope);
+
+    public static final List<Setting<?>> SETTINGS = Arrays.asList(INDEX_SYNONYM_SLOWLOG_THRESHOLD_WARN_SETTING,
+            INDEX_SYNONYM_SLOWLOG_THRESHOLD_INFO_SETTING, INDEX_SYNONYM_SLOWLOG_THRESHOLD_DEBUG_SETTING,
+            INDEX_SYNONYM_SLOWLOG_THRESHOLD_TRACE_SETTING, INDEX_SYNONYM_SLOWLOG_MAX_SOURCE_CHARS_TO_LOG_SETTING);
+
+    private final String index;
+
+    private final String name;
+
+    private final String type;
+
+    private final Logger logger;
+
+    private volatile long warnThreshold;
+
+    private volatile long infoThreshold;
+
+    private volatile long debugThreshold;
+
+    private volatile long traceThreshold;
+
+    private volatile int maxSourceCharsToLog;
+
+    private volatile boolean enabled;
+
+    public SynonymSlowLog(final IndexSettings indexSettings, final String name, final String type) {
+        this.index = indexSettings.getIndex().getName();
+        this.name = name;
+        this.type = type;
+        this.logger = Loggers.getLogger(INDEX_SYNONYM_SLOWLOG_PREFIX + ".analysis", indexSettings.getSettings());
+
+        setWarnThreshold(INDEX_SYNONYM_SLOWLOG_THRESHOLD_WARN_SETTING.get(indexSettings.getSettings()));
+        setInfoThreshold(INDEX_SYNONYM_SLOWLOG_THRESHOLD_INFO_SETTING.get(indexSettings.getSettings()));
+        setDebugThreshold(INDEX_SYNONYM_SLOWLOG_THRESHOLD_DEBUG_SETTING.get(indexSettings.getSettings()));
+        setTraceThreshold(INDEX_SYNONYM_SLOWLOG_THRESHOLD_TRACE_SETTING.get(indexSettings.getSettings()));
+        maxSourceCharsToLog = INDEX_SYNONYM_SLOWLOG_MAX_SOURCE_CHARS_TO_LOG_SETTING.get(indexSettings.getSettings());
+
+        // the index settings of the analyze API without an index do not have the plugin settings
+        if (indexSettings.getScopedSettings().get(INDEX_SYNONYM_SLOWLOG_THRESHOLD_WARN_SETTING.getKey()) != null) {
+            indexSettings.getScopedSettings().addSettingsUpdateConsumer(INDEX_SYNONYM_SLOWLOG_THRESHOLD_WARN_SETTING,
+                    this::setWarnThreshold);
+            indexSettings.getScopedSettings().addSettingsUpdateConsumer(INDEX_SYNONYM_SLOWLOG_THRESHOLD_INFO_SETTING,
+                    this::setInfoThreshold);
+            indexSettings.getScopedSettings().addSettingsUpdateConsumer(INDEX_SYNONYM_SLOWLOG_THRESHOLD_DEBUG_SETTING,
+                    this::setDebugThreshold);
+            indexSettings.getScopedSettings().addSettingsUpdateConsumer(INDEX_SYNONYM_SLOWLOG_THRESHOLD_TRACE_SETTING,
+                    this::setTraceThreshold);
+            indexSettings.getScopedSettings().addSettingsUpdateConsumer(INDEX_SYNONYM_SLOWLOG_MAX_SOURCE_CHARS_TO_LOG_SETTING,
+                    v -> maxSourceCharsToLog = v);
+        }
+    }
+
+    private static Setting<TimeValue> thresholdSetting(final String level) {
+        return Setting.timeSetting(INDEX_SYNONYM_SLOWLOG_PREFIX + ".threshold.analysis." + level, TimeValue.timeValueNanos(-1),
+                TimeValue.timeValueMillis(-1), Property.Dynamic, Property.IndexScope);
+    }
+
+    private void setWarnThreshold(final TimeValue threshold) {
+        warnThreshold = threshold.nanos();
+        updateEnabled();
+    }
+
+    private void setInfoThreshold(final TimeValue threshold) {
+        infoThreshold = threshold.nanos();
+        updateEnabled();
+    }
+
+    private void setDebugThreshold(final TimeValue threshold) {
+        debugThreshold = threshold.nanos();
+        updateEnabled();
+    }
+
+    private void setTraceThreshold(final TimeValue threshold) {
+        traceThreshold = threshold.nanos();
+        updateEnabled();
+    }
+
+    private void updateEnabled() {
+        enabled = warnThreshold >= 0 || infoThreshold >= 0 || debugThreshold >= 0 || traceThreshold >= 0;
+    }
+
+    /**
+     * Returns true if a threshold is set, i.e. token streams should be timed.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of input chars to keep for the log.
+     */
+    public int getMaxSourceCharsToLog() {
+        return maxSourceCharsToLog;
+    }
+
+    /**
+     * Logs a token stream if it took longer than a threshold.
+     *
+     * @param source the first chars of the input, up to {@link #getMaxSourceCharsToLog()}
+     */
+    public void onAnalysis(final long tookInNanos, final int inputLength, final int tokens, final CharSequence source) {
+        if (warnThreshold >= 0 && tookInNanos > warnThreshold) {
+            logger.warn("{}", new Message(this, tookInNanos, inputLength, tokens, source));
+        } else if (infoThreshold >= 0 && tookInNanos > infoThreshold) {
+            logger.info("{}", new Message(this, tookInNanos, inputLength, tokens, source));
+        } else if (debugThreshold >= 0 && tookInNanos > debugThreshold) {
+            logger.debug("{}", new Message(this, tookInNanos, inputLength, tokens, source));
+        } else if (traceThreshold >= 0 && tookInNanos > traceThreshold) {
+            logger.trace("{}", new Message(this, tookInNanos, inputLength, tokens, source));
+        }
+    }
+
+    // formatted only if the level is enabled
+    static final class Message {
+
+        private final SynonymSlowLog slowLog;
+
+        private final long tookInNanos;
+
+        private final int inputLength;
+
+        private final int tokens;
+
+        private final String source;
+
+        Message(final SynonymSlowLog slowLog, final long tookInNanos, final int inputLength, final int tokens,
+                final CharSequence source) {
+            this.slowLog = slowLog;
+            this.tookInNanos = tookInNanos;
+            this.inputLength = inputLength;
+            this.tokens = tokens;
+            this.source = source == null ? "" : source.toString();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append('[').append(slowLog.index).append("] ");
+            sb.append("took[").append(TimeValue.timeValueNanos(tookInNanos)).append("], ");
+            sb.append("took_millis[").append(TimeUnit.NANOSECONDS.toMillis(tookInNanos)).append("], ");
+            sb.append("name[").append(slowLog.name).append("], ");
+            sb.append("type[").append(slowLog.type).append("], ");
+            sb.append("input_length[").append(inputLength).append("], ");
+            sb.append("tokens[").append(tokens).append("], ");
+            sb.append("source[").append(source.replace('\n', ' ').replace('\r', ' ')).append(']');
+            return sb.toString();
+        }
+    }
+}
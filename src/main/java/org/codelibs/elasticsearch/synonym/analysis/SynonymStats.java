@@ -0,0 +1,110 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by all token streams created from one synonym tokenizer or filter definition.
+ */
+public class SynonymStats {
+
+    private final int ruleHitSampleInterval;
+
+    private volatile SynonymRuleHits ruleHits;
+
+    private final LongAdder matchLimitHits = new LongAdder();
+
+    private final LongAdder docLimitHits = new LongAdder();
+
+    private final LongAdder tokens = new LongAdder();
+
+    private final LongAdder boundaryTokens = new LongAdder();
+
+    private final LongAdder skippedBoundaryTokens = new LongAdder();
+
+    public SynonymStats() {
+        this(0);
+    }
+
+    /**
+     * @param ruleHitSampleInterval counts the hits of the dictionary entries in one of this many lookups or matches, or none if 0
+     */
+    public SynonymStats(final int ruleHitSampleInterval) {
+        this.ruleHitSampleInterval = ruleHitSampleInterval;
+    }
+
+    /**
+     * Records a match whose outputs were truncated by {@code max_expansions_per_match}.
+     */
+    public void onMatchLimit() {
+        matchLimitHits.increment();
+    }
+
+    /**
+     * Records a token stream that reached {@code max_synonym_tokens_per_doc}.
+     */
+    public void onDocLimit() {
+        docLimitHits.increment();
+    }
+
+    /**
+     * Records the tokens of a token stream of {@link NGramSynonymTokenizer}: all the emitted tokens, the grams added
+     * next to synonyms, and the grams next to synonyms left out by the boundary settings.
+     */
+    public void onTokens(final int total, final int boundary, final int skippedBoundary) {
+        tokens.add(total);
+        boundaryTokens.add(boundary);
+        skippedBoundaryTokens.add(skippedBoundary);
+    }
+
+    public long getMatchLimitHits() {
+        return matchLimitHits.sum();
+    }
+
+    public long getDocLimitHits() {
+        return docLimitHits.sum();
+    }
+
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    public long getBoundaryTokens() {
+        return boundaryTokens.sum();
+    }
+
+    public long getSkippedBoundaryTokens() {
+        return skippedBoundaryTokens.sum();
+    }
+
+    public int getRuleHitSampleInterval() {
+        return ruleHitSampleInterval;
+    }
+
+    /**
+     * Returns the hit counters of the given dictionary, replacing the ones of a previous dictionary,
+     * or null if the hits are not counted.
+     */
+    public SynonymRuleHits getRuleHits(final SynonymDictionary dictionary) {
+        if (ruleHitSampleInterval <= 0 || dictionary == null) {
+            return null;
+        }
+        SynonymRuleHits result = ruleHits;
+        if (result == null || result.getDictionary() != dictionary) {
+            synchronized (this) {
+                result = ruleHits;
+                if (result == null || result.getDictionary() != dictionary) {
+                    result = new SynonymRuleHits(dictionary, ruleHitSampleInterval);
+                    ruleHits = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hit counters of the latest dictionary, or null if none were counted.
+     */
+    public SynonymRuleHits getRuleHits() {
+        return ruleHits;
+    }
+}
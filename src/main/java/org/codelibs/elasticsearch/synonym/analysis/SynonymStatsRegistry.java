@@ -0,0 +1,83 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexSettings;
+
+/**
+ * The {@link SynonymStats} of the synonym tokenizers and filters defined in the indices of this node.
+ * Factories register their stats when an index is created on the node, and they are removed with the index.
+ */
+public class SynonymStatsRegistry {
+
+    private final Map<Index, Map<String, Entry>> indices = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the stats of a definition. Definitions of the analyze API without an index are skipped.
+     */
+    public void register(final IndexSettings indexSettings, final String name, final String type, final SynonymStats stats) {
+        final Index index = indexSettings.getIndex();
+        if (IndexMetaData.INDEX_UUID_NA_VALUE.equals(index.getUUID())) {
+            return;
+        }
+        indices.computeIfAbsent(index, k -> new ConcurrentHashMap<>()).put(name, new Entry(index.getName(), name, type, stats));
+    }
+
+    public void remove(final Index index) {
+        indices.remove(index);
+    }
+
+    /**
+     * Returns the entries of the given index, or of all indices if null, sorted by index and name.
+     */
+    public List<Entry> getEntries(final String indexName) {
+        final List<Entry> entries = new ArrayList<>();
+        for (final Map.Entry<Index, Map<String, Entry>> index : indices.entrySet()) {
+            if (indexName == null || indexName.equals(index.getKey().getName())) {
+                entries.addAll(index.getValue().values());
+            }
+        }
+        entries.sort(Comparator.comparing(Entry::getIndex).thenComparing(Entry::getName));
+        return entries;
+    }
+
+    public static class Entry {
+
+        private final String index;
+
+        private final String name;
+
+        private final String type;
+
+        private final SynonymStats stats;
+
+        Entry(final String index, final String name, final String type, final SynonymStats stats) {
+            this.index = index;
+            this.name = name;
+            this.type = type;
+            this.stats = stats;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public SynonymStats getStats() {
+            return stats;
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package org.codelibs.elasticsearch.synonym.analysis;
 
 import java.io.IOException;
+import java.util.Collections;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
-import org.apache.lucene.analysis.core.LowerCaseFilter;
 import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
@@ -17,16 +17,48 @@ import org.elasticsearch.indices.analysis.AnalysisModule;
 
 public class SynonymTokenFilterFactory extends AbstractTokenFilterFactory {
 
-    private final boolean ignoreCase;
+    private final SynonymNormalizer normalizer;
+
+    private final int maxExpansionsPerMatch;
+
+    private final int maxSynonymTokensPerDoc;
+
+    private final SynonymStats stats;
+
+    private final SynonymSlowLog slowLog;
+
+    private final boolean graph;
 
     private SynonymLoader synonymLoader = null;
 
     public SynonymTokenFilterFactory(final IndexSettings indexSettings, final Environment environment, final String name, final Settings settings,
             final AnalysisRegistry analysisRegistry) throws IOException {
+        this(indexSettings, environment, name, settings, analysisRegistry, null);
+    }
+
+    public SynonymTokenFilterFactory(final IndexSettings indexSettings, final Environment environment, final String name, final Settings settings,
+            final AnalysisRegistry analysisRegistry, final SynonymStatsRegistry statsRegistry) throws IOException {
         super(indexSettings, name, settings);
 
-        this.ignoreCase = settings.getAsBoolean("ignore_case", false);
+        final boolean ignoreCase = settings.getAsBoolean("ignore_case", false);
+        this.normalizer = SynonymNormalizer.of(settings.getAsList("normalization", Collections.emptyList()), ignoreCase);
         final boolean expand = settings.getAsBoolean("expand", true);
+        this.maxExpansionsPerMatch = settings.getAsInt("max_expansions_per_match", Integer.MAX_VALUE);
+        if (maxExpansionsPerMatch < 0) {
+            throw new IllegalArgumentException("max_expansions_per_match must be non-negative: " + maxExpansionsPerMatch);
+        }
+        this.maxSynonymTokensPerDoc = settings.getAsInt("max_synonym_tokens_per_doc", Integer.MAX_VALUE);
+        if (maxSynonymTokensPerDoc < 0) {
+            throw new IllegalArgumentException("max_synonym_tokens_per_doc must be non-negative: " + maxSynonymTokensPerDoc);
+        }
+        final int ruleHitSampleInterval = settings.getAsInt("rule_hits_sample_interval", 0);
+        if (ruleHitSampleInterval < 0) {
+            throw new IllegalArgumentException("rule_hits_sample_interval must be non-negative: " + ruleHitSampleInterval);
+        }
+        this.stats = new SynonymStats(ruleHitSampleInterval);
+        this.slowLog = new SynonymSlowLog(indexSettings, name, "synonym_filter");
+
+        this.graph = settings.getAsBoolean("graph", false);
 
         final String tokenizerName = settings.get("tokenizer", "whitespace");
 
@@ -46,12 +78,12 @@ public class SynonymTokenFilterFactory extends AbstractTokenFilterFactory {
             @Override
             protected TokenStreamComponents createComponents(final String fieldName) {
                 final Tokenizer tokenizer = tokenizerFactory == null ? new WhitespaceTokenizer() : tokenizerFactory.create();
-                final TokenStream stream = ignoreCase ? new LowerCaseFilter(tokenizer) : tokenizer;
-                return new TokenStreamComponents(tokenizer, stream);
+                return new TokenStreamComponents(tokenizer, normalizer.wrap(tokenizer));
             }
         };
 
-        synonymLoader = new SynonymLoader(environment, settings, expand, analyzer);
+        // the automaton only numbers the entries for the rule hits
+        synonymLoader = new SynonymLoader(environment, settings, expand, analyzer, ruleHitSampleInterval > 0);
         if (synonymLoader.getSynonymMap() == null) {
             if (settings.getAsList("synonyms", null) != null) {
                 logger.warn("synonyms values are empty.");
@@ -61,12 +93,38 @@ public class SynonymTokenFilterFactory extends AbstractTokenFilterFactory {
                 throw new IllegalArgumentException("synonym requires either `synonyms` or `synonyms_path` to be configured");
             }
         }
+        if (statsRegistry != null) {
+            statsRegistry.register(indexSettings, name, "synonym_filter", stats);
+        }
     }
 
     @Override
     public TokenStream create(final TokenStream tokenStream) {
         // fst is null means no synonyms
-        return synonymLoader == null ? tokenStream : new SynonymFilter(tokenStream, synonymLoader, ignoreCase);
+        if (synonymLoader == null) {
+            return tokenStream;
+        }
+        final SynonymFilter filter =
+                new SynonymFilter(tokenStream, synonymLoader, normalizer, maxExpansionsPerMatch, maxSynonymTokensPerDoc, stats, graph);
+        filter.setSlowLog(slowLog);
+        return filter;
+    }
+
+    /**
+     * Creates a filter for profiling, which reports to its own stats and neither to the slowlog nor to JFR.
+     */
+    TokenStream createForProfiling(final TokenStream tokenStream) {
+        if (synonymLoader == null) {
+            return tokenStream;
+        }
+        final SynonymFilter filter = new SynonymFilter(tokenStream, synonymLoader, normalizer, maxExpansionsPerMatch,
+                maxSynonymTokensPerDoc, new SynonymStats(), graph);
+        filter.setEvents(new SynonymEvents());
+        return filter;
+    }
+
+    public SynonymStats getStats() {
+        return stats;
     }
 
 }
@@ -0,0 +1,191 @@
+package org.codelibs.elasticsearch.synonym.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.codelibs.elasticsearch.synonym.analysis.SynonymAnalysisProfiler;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.analysis.CustomAnalyzer;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Runs texts through a custom analyzer of an index many times and returns the time, the allocation and,
+ * for the synonym tokenizers and filters, the dictionary lookups and FST arcs of each component.
+ * The index must have a shard on the node handling the request.
+ */
+public class RestSynonymProfileAction extends BaseRestHandler {
+
+    // a request ties up a generic thread for all its runs, so they are bounded
+    static final int MAX_ITERATIONS = 1000;
+
+    static final int MAX_WARMUP = 1000;
+
+    static final int MAX_TEXTS = 100;
+
+    static final int MAX_TEXT_CHARS = 100_000;
+
+    private final Supplier<IndicesService> indicesService;
+
+    public RestSynonymProfileAction(final Settings settings, final RestController controller,
+            final Supplier<IndicesService> indicesService) {
+        super(settings);
+        this.indicesService = indicesService;
+        controller.registerHandler(GET, "/{index}/_synonym/_profile", this);
+        controller.registerHandler(POST, "/{index}/_synonym/_profile", this);
+    }
+
+    @Override
+    public String getName() {
+        return "synonym_profile_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) throws IOException {
+        final String index = request.param("index");
+        final Tuple<XContentType, BytesReference> content = request.contentOrSourceParam();
+        final Map<String, Object> body = XContentHelper.convertToMap(content.v2(), false, content.v1()).v2();
+        final String analyzerName = getString(body, "analyzer");
+        final List<String> texts = getTexts(body);
+        final int iterations = getInt(body, "iterations", 100);
+        final int warmup = getInt(body, "warmup", 10);
+        if (analyzerName == null) {
+            throw new IllegalArgumentException("analyzer is required");
+        }
+        if (iterations <= 0 || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("iterations must be between 1 and " + MAX_ITERATIONS + ": " + iterations);
+        }
+        if (warmup < 0 || warmup > MAX_WARMUP) {
+            throw new IllegalArgumentException("warmup must be between 0 and " + MAX_WARMUP + ": " + warmup);
+        }
+
+        final SynonymAnalysisProfiler profiler = new SynonymAnalysisProfiler(getAnalyzer(index, analyzerName));
+        return channel -> client.threadPool().generic().execute(() -> {
+            try {
+                final SynonymAnalysisProfiler.Result result = profiler.profile(texts, warmup, iterations);
+                final XContentBuilder builder = channel.newBuilder();
+                builder.startObject();
+                builder.field("analyzer", analyzerName);
+                builder.field("texts", texts.size());
+                builder.field("iterations", iterations);
+                builder.field("tokens", result.getTokens());
+                builder.startArray("components");
+                for (final SynonymAnalysisProfiler.Component component : result.getComponents()) {
+                    writeComponent(builder, component, result.getTokens());
+                }
+                builder.endArray();
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            } catch (final Exception e) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, e));
+                } catch (final IOException inner) {
+                    inner.addSuppressed(e);
+                    logger.warn("failed to send the synonym profile failure", inner);
+                }
+            }
+        });
+    }
+
+    private CustomAnalyzer getAnalyzer(final String index, final String analyzerName) {
+        IndexService indexService = null;
+        for (final IndexService service : indicesService.get()) {
+            if (service.index().getName().equals(index)) {
+                indexService = service;
+                break;
+            }
+        }
+        if (indexService == null) {
+            throw new IllegalArgumentException("index [" + index + "] has no shard on this node");
+        }
+        final NamedAnalyzer namedAnalyzer = indexService.getIndexAnalyzers().get(analyzerName);
+        if (namedAnalyzer == null) {
+            throw new IllegalArgumentException("analyzer [" + analyzerName + "] not found in index [" + index + "]");
+        }
+        final Analyzer analyzer = namedAnalyzer.analyzer();
+        if (!(analyzer instanceof CustomAnalyzer)) {
+            throw new IllegalArgumentException("analyzer [" + analyzerName + "] is not a custom analyzer");
+        }
+        return (CustomAnalyzer) analyzer;
+    }
+
+    private static void writeComponent(final XContentBuilder builder, final SynonymAnalysisProfiler.Component component,
+            final long tokens) throws IOException {
+        final double divisor = Math.max(tokens, 1);
+        builder.startObject();
+        builder.field("name", component.getName());
+        builder.field("kind", component.getKind());
+        builder.field("type", component.getType());
+        builder.field("time_in_nanos", component.getNanos());
+        builder.field("nanos_per_token", component.getNanos() / divisor);
+        if (component.getAllocatedBytes() >= 0) {
+            builder.field("allocated_bytes", component.getAllocatedBytes());
+            builder.field("bytes_per_token", component.getAllocatedBytes() / divisor);
+        }
+        if (component.getLookups() >= 0) {
+            builder.field("dictionary_lookups", component.getLookups());
+            builder.field("dictionary_lookups_per_token", component.getLookups() / divisor);
+            builder.field("arcs", component.getArcs());
+            builder.field("arcs_per_token", component.getArcs() / divisor);
+        }
+        builder.endObject();
+    }
+
+    private static String getString(final Map<String, Object> body, final String name) {
+        final Object value = body.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    private static int getInt(final Map<String, Object> body, final String name, final int defaultValue) {
+        final Object value = body.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    private static List<String> getTexts(final Map<String, Object> body) {
+        final Object value = body.get("text");
+        final List<String> texts = new ArrayList<>();
+        if (value instanceof List) {
+            for (final Object text : (List<?>) value) {
+                texts.add(String.valueOf(text));
+            }
+        } else if (value != null) {
+            texts.add(value.toString());
+        }
+        if (texts.isEmpty()) {
+            throw new IllegalArgumentException("text is required");
+        }
+        if (texts.size() > MAX_TEXTS) {
+            throw new IllegalArgumentException("text must have at most " + MAX_TEXTS + " values: " + texts.size());
+        }
+        long chars = 0;
+        for (final String text : texts) {
+            chars += text.length();
+        }
+        if (chars > MAX_TEXT_CHARS) {
+            throw new IllegalArgumentException("text must have at most " + MAX_TEXT_CHARS + " chars in total: " + chars);
+        }
+        return texts;
+    }
+}
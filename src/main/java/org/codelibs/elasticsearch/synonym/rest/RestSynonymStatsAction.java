@@ -0,0 +1,138 @@
+package org.codelibs.elasticsearch.synonym.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.synonym.analysis.SynonymRuleHits;
+import org.codelibs.elasticsearch.synonym.analysis.SynonymStats;
+import org.codelibs.elasticsearch.synonym.analysis.SynonymStatsRegistry;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Returns the stats of the synonym tokenizers and filters of the indices on the node handling the request,
+ * with the entries hit most and the entries never sampled when rule hits are counted.
+ * The stats are not aggregated over the cluster, so the response names the node and has the scope "local_node".
+ * The entries are listed in a generic thread, as walking a large dictionary takes a while.
+ */
+public class RestSynonymStatsAction extends BaseRestHandler {
+
+    private final SynonymStatsRegistry statsRegistry;
+
+    public RestSynonymStatsAction(final Settings settings, final RestController controller, final SynonymStatsRegistry statsRegistry) {
+        super(settings);
+        this.statsRegistry = statsRegistry;
+        controller.registerHandler(GET, "/_synonym/stats", this);
+        controller.registerHandler(GET, "/{index}/_synonym/stats", this);
+    }
+
+    @Override
+    public String getName() {
+        return "synonym_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) throws IOException {
+        final String index = request.param("index");
+        final int size = request.paramAsInt("size", 10);
+        final boolean unsampled = request.paramAsBoolean("unsampled", false);
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative: " + size);
+        }
+        return channel -> client.threadPool().generic().execute(() -> {
+            try {
+                final XContentBuilder builder = channel.newBuilder();
+                builder.startObject();
+                builder.field("scope", "local_node");
+                builder.startObject("node");
+                builder.field("id", client.getLocalNodeId());
+                builder.field("name", Node.NODE_NAME_SETTING.get(settings));
+                builder.endObject();
+                builder.startObject("indices");
+                String currentIndex = null;
+                for (final SynonymStatsRegistry.Entry entry : statsRegistry.getEntries(index)) {
+                    if (!entry.getIndex().equals(currentIndex)) {
+                        if (currentIndex != null) {
+                            builder.endObject();
+                        }
+                        currentIndex = entry.getIndex();
+                        builder.startObject(currentIndex);
+                    }
+                    builder.startObject(entry.getName());
+                    builder.field("type", entry.getType());
+                    writeStats(builder, entry.getStats(), size, unsampled);
+                    builder.endObject();
+                }
+                if (currentIndex != null) {
+                    builder.endObject();
+                }
+                builder.endObject();
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            } catch (final Exception e) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, e));
+                } catch (final IOException inner) {
+                    inner.addSuppressed(e);
+                    logger.warn("failed to send the synonym stats failure", inner);
+                }
+            }
+        });
+    }
+
+    private static void writeStats(final XContentBuilder builder, final SynonymStats stats, final int size, final boolean unsampled)
+            throws IOException {
+        builder.field("match_limit_hits", stats.getMatchLimitHits());
+        builder.field("doc_limit_hits", stats.getDocLimitHits());
+        builder.field("tokens", stats.getTokens());
+        builder.field("boundary_tokens", stats.getBoundaryTokens());
+        builder.field("skipped_boundary_tokens", stats.getSkippedBoundaryTokens());
+        final SynonymRuleHits ruleHits = stats.getRuleHits();
+        if (ruleHits == null) {
+            return;
+        }
+
+        final int[] topEntries = ruleHits.getTopEntries(size);
+        final String[] topInputs = new String[topEntries.length];
+        final Map<Integer, Integer> topRanks = new HashMap<>();
+        for (int i = 0; i < topEntries.length; i++) {
+            topRanks.put(topEntries[i], i);
+        }
+        final List<String> unsampledInputs = new ArrayList<>();
+        ruleHits.forEachEntry((input, entry) -> {
+            final Integer rank = topRanks.get(entry);
+            if (rank != null) {
+                topInputs[rank] = input;
+            }
+            if (unsampled && unsampledInputs.size() < size && ruleHits.getHits(entry) == 0) {
+                unsampledInputs.add(input);
+            }
+        });
+
+        builder.startObject("rule_hits");
+        builder.field("sample_interval", ruleHits.getSampleInterval());
+        builder.field("entries", ruleHits.getEntryCount());
+        builder.field("unsampled_entries", ruleHits.getUnsampledEntryCount());
+        builder.startArray("top");
+        for (int i = 0; i < topEntries.length; i++) {
+            builder.startObject().field("input", topInputs[i]).field("hits", ruleHits.getHits(topEntries[i])).endObject();
+        }
+        builder.endArray();
+        if (unsampled) {
+            builder.array("unsampled", unsampledInputs.toArray(new String[unsampledInputs.size()]));
+        }
+        builder.endObject();
+    }
+}
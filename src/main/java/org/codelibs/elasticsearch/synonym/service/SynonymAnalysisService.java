@@ -5,14 +5,16 @@ import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.analysis.AnalysisRegistry;
+import org.elasticsearch.indices.IndicesService;
 
 public class SynonymAnalysisService extends AbstractLifecycleComponent {
 
     @Inject
     public SynonymAnalysisService(final Settings settings, final AnalysisRegistry analysisRegistry,
-            final SynonymPlugin.PluginComponent pluginComponent) {
+            final IndicesService indicesService, final SynonymPlugin.PluginComponent pluginComponent) {
         super(settings);
         pluginComponent.setAnalysisRegistry(analysisRegistry);
+        pluginComponent.setIndicesService(indicesService);
     }
 
     @Override
@@ -0,0 +1,224 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.security.PrivilegedAction;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+/**
+ * {@link SynonymEvents} backed by JFR, loaded by name when the JVM has JFR.
+ * It is compiled only on JDK 11 or later (see the "jfr" profile), so a plugin built on JDK 8 has no events.
+ * The events are registered up front, which needs the "registerEvent" permission of plugin-security.policy.
+ */
+class JfrSynonymEvents extends SynonymEvents {
+
+    @Name("org.codelibs.synonym.DictionaryBuild")
+    @Label("Synonym Dictionary Build")
+    @Category({ "Elasticsearch", "Synonym" })
+    @Description("Synonym rules read and built into a dictionary, at index creation or on a reload")
+    static class DictionaryBuildEvent extends Event {
+
+        @Label("Source")
+        String source;
+
+        @Label("Reload")
+        boolean reload;
+
+        @Label("Lines")
+        int lines;
+
+        @Label("Chars")
+        long chars;
+
+        @Label("Words")
+        @Description("Distinct output words")
+        int words;
+
+        @Label("FST Size")
+        @DataAmount
+        long fstBytes;
+
+        @Label("Parse Time")
+        @Description("Time to parse the rules and analyze their terms")
+        @Timespan
+        long parseTime;
+
+        @Label("FST Build Time")
+        @Timespan
+        long fstTime;
+
+        @Label("Dictionary Build Time")
+        @Timespan
+        long dictionaryTime;
+    }
+
+    @Name("org.codelibs.synonym.AutomatonBuild")
+    @Label("Synonym Automaton Build")
+    @Category({ "Elasticsearch", "Synonym" })
+    @Description("Aho-Corasick automaton built on the first use of a dictionary by ngram_synonym")
+    static class AutomatonBuildEvent extends Event {
+
+        @Label("Entries")
+        int entries;
+
+        @Label("States")
+        int states;
+    }
+
+    @Name("org.codelibs.synonym.Reload")
+    @Label("Synonym Reload")
+    @Category({ "Elasticsearch", "Synonym" })
+    @Description("A token stream switching to a reloaded dictionary in reset()")
+    static class ReloadEvent extends Event {
+
+        @Label("Component")
+        String component;
+
+        @Label("Last Modified")
+        @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long lastModified;
+    }
+
+    @Name("org.codelibs.synonym.SlowAnalysis")
+    @Label("Slow Synonym Analysis")
+    @Category({ "Elasticsearch", "Synonym" })
+    @Description("A token stream taking longer than the threshold from reset() to end()")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class AnalysisEvent extends Event {
+
+        @Label("Component")
+        String component;
+
+        @Label("Input Length")
+        @Description("Chars read by the tokenizer, or chars of the input tokens of the filter")
+        int inputLength;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Synonym Tokens")
+        int synonymTokens;
+    }
+
+    // Elasticsearch 6 runs plugins under a security manager, so registering the events needs the privileged block,
+    // although AccessController is deprecated for removal on newer JDKs
+    @SuppressWarnings("removal")
+    JfrSynonymEvents() {
+        java.security.AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            FlightRecorder.register(DictionaryBuildEvent.class);
+            FlightRecorder.register(AutomatonBuildEvent.class);
+            FlightRecorder.register(ReloadEvent.class);
+            FlightRecorder.register(AnalysisEvent.class);
+            return null;
+        });
+    }
+
+    @Override
+    Object beginBuild() {
+        return begin(new DictionaryBuildEvent());
+    }
+
+    @Override
+    void endBuild(final Object event, final String source, final boolean reload, final int lines, final long chars,
+            final SynonymMap map, final long parseNanos, final long fstNanos, final long dictionaryNanos) {
+        if (event == null) {
+            return;
+        }
+        final DictionaryBuildEvent e = (DictionaryBuildEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.source = source;
+            e.reload = reload;
+            e.lines = lines;
+            e.chars = chars;
+            if (map != null) {
+                e.words = map.words.size();
+                e.fstBytes = map.fst == null ? 0 : map.fst.ramBytesUsed();
+            }
+            e.parseTime = parseNanos;
+            e.fstTime = fstNanos;
+            e.dictionaryTime = dictionaryNanos;
+            e.commit();
+        }
+    }
+
+    @Override
+    Object beginAutomatonBuild() {
+        return begin(new AutomatonBuildEvent());
+    }
+
+    @Override
+    void endAutomatonBuild(final Object event, final SynonymAutomaton automaton) {
+        if (event == null) {
+            return;
+        }
+        final AutomatonBuildEvent e = (AutomatonBuildEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.entries = automaton.getEntryCount();
+            e.states = automaton.getStateCount();
+            e.commit();
+        }
+    }
+
+    @Override
+    Object beginReload() {
+        return begin(new ReloadEvent());
+    }
+
+    @Override
+    void endReload(final Object event, final String component, final long lastModified) {
+        if (event == null) {
+            return;
+        }
+        final ReloadEvent e = (ReloadEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.component = component;
+            e.lastModified = lastModified;
+            e.commit();
+        }
+    }
+
+    @Override
+    Object beginAnalysis() {
+        return begin(new AnalysisEvent());
+    }
+
+    @Override
+    void endAnalysis(final Object event, final String component, final int inputLength, final int tokens, final int synonymTokens) {
+        if (event == null) {
+            return;
+        }
+        final AnalysisEvent e = (AnalysisEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.component = component;
+            e.inputLength = inputLength;
+            e.tokens = tokens;
+            e.synonymTokens = synonymTokens;
+            e.commit();
+        }
+    }
+
+    // a disabled event is dropped at once, so the JIT can remove its allocation
+    private static Event begin(final Event event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+}
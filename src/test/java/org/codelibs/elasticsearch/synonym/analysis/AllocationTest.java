@@ -0,0 +1,104 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Bytes allocated per token in steady state, over fixed corpora. A test fails when a change
+ * allocates more than the budget recorded here, e.g. by adding per-token garbage.
+ */
+public class AllocationTest {
+
+  // the budgets leave room for the reader of each document, for measurement noise and for other JVMs
+  private static final double TOKENIZER_BUDGET = 1;
+
+  private static final double FILTER_BUDGET = 32;
+
+  private static final int WARMUP_ROUNDS = 200;
+
+  private static final int ROUNDS = 50;
+
+  private static com.sun.management.ThreadMXBean threadBean;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      threadBean = (com.sun.management.ThreadMXBean) bean;
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+  }
+
+  @Test
+  public void testNGramSynonymTokenizer() throws Exception {
+    final BenchmarkData data = new BenchmarkData(1000, "mixed", false);
+    final SynonymMap synonyms = data.buildSynonymMap(true);
+    final String text = data.text("mixed", 10000);
+    for (int n = 1; n <= 3; n++) {
+      for (NGramSynonymTokenizer.Mode mode : NGramSynonymTokenizer.Mode.values()) {
+        for (boolean mixedScript : new boolean[] { false, true }) {
+          final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(n, n + 1,
+              Delimiters.of(NGramSynonymTokenizer.DEFAULT_DELIMITERS), true, mode, SynonymNormalizer.forMatching(true),
+              new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+          tokenizer.setMixedScript(mixedScript);
+          assertBudget("ngram_synonym n=" + n + " mode=" + mode + " mixed_script=" + mixedScript, TOKENIZER_BUDGET,
+              tokenizer, tokenizer, text);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSynonymFilter() throws Exception {
+    final BenchmarkData data = new BenchmarkData(1000, "mixed", true);
+    final SynonymMap synonyms = data.buildSynonymMap(true);
+    final String text = data.words(10000);
+    for (boolean graph : new boolean[] { false, true }) {
+      final Tokenizer tokenizer = new WhitespaceTokenizer();
+      final TokenStream stream = new SynonymFilter(tokenizer, new TestSynonymLoader(synonyms), SynonymNormalizer.forMatching(true),
+          Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), graph);
+      assertBudget("synonym_filter graph=" + graph, FILTER_BUDGET, tokenizer, stream, text);
+    }
+  }
+
+  private static void assertBudget(String name, double budget, Tokenizer tokenizer, TokenStream stream, String text)
+      throws IOException {
+    assumeNotNull(threadBean);
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      analyze(tokenizer, stream, text);
+    }
+    final long threadId = Thread.currentThread().getId();
+    final long start = threadBean.getThreadAllocatedBytes(threadId);
+    long tokens = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      tokens += analyze(tokenizer, stream, text);
+    }
+    final long allocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+    final double perToken = (double) allocated / tokens;
+    assertTrue(name + " allocated " + perToken + " bytes per token, over the budget of " + budget, perToken <= budget);
+  }
+
+  private static int analyze(Tokenizer tokenizer, TokenStream stream, String text) throws IOException {
+    tokenizer.setReader(new StringReader(text));
+    stream.reset();
+    int count = 0;
+    while (stream.incrementToken()) {
+      count++;
+    }
+    stream.end();
+    stream.close();
+    return count;
+  }
+}
@@ -0,0 +1,136 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+/**
+ * Generates rules and texts for the benchmarks and AllocationTest. The same arguments always give the same data.
+ */
+final class BenchmarkData {
+
+    private static final String LATIN = "abcdefghijklmnopqrstuvwxyz";
+
+    private final Random random;
+
+    private final List<String> entries = new ArrayList<>();
+
+    private final String rules;
+
+    /**
+     * @param ruleCount the number of rules, each with two entries
+     * @param ruleLength "short" (1-3 chars), "long" (4-10 chars) or "mixed" (70% short, 30% long)
+     * @param multiWord whether entries longer than 3 chars are split into words, for token filters
+     */
+    BenchmarkData(final int ruleCount, final String ruleLength, final boolean multiWord) {
+        random = new Random(ruleCount * 31L + ruleLength.hashCode());
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ruleCount; i++) {
+            final String input = entry(ruleLength, multiWord);
+            final String output = entry(ruleLength, multiWord);
+            entries.add(input);
+            sb.append(input).append(',').append(output).append('\n');
+        }
+        rules = sb.toString();
+    }
+
+    String getRules() {
+        return rules;
+    }
+
+    SynonymMap buildSynonymMap(final boolean expand) {
+        return TestSynonymLoader.parse(rules, expand, SynonymLoader.getAnalyzer(true));
+    }
+
+    SynonymLoader buildSynonymLoader(final boolean expand) {
+        return new TestSynonymLoader(buildSynonymMap(expand));
+    }
+
+    /**
+     * Returns CJK text ("cjk") or CJK text with Latin words and numbers ("mixed"), with an entry about every 10 chars.
+     */
+    String text(final String kind, final int length) {
+        final StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            final int r = random.nextInt(10);
+            if (r < 2) {
+                sb.append(entries.get(random.nextInt(entries.size())).replace(' ', 'ー'));
+            } else if (r < 4 && "mixed".equals(kind)) {
+                sb.append(' ').append(latin(2 + random.nextInt(8)));
+                if (random.nextBoolean()) {
+                    sb.append(random.nextInt(1000));
+                }
+                sb.append(' ');
+            } else if (r == 4) {
+                sb.append('。');
+            } else {
+                sb.append(cjk(1 + random.nextInt(8)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns whitespace separated words, a fifth of them being entries.
+     */
+    String words(final int length) {
+        final StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            if (random.nextInt(5) == 0) {
+                sb.append(entries.get(random.nextInt(entries.size())));
+            } else {
+                sb.append(cjk(1 + random.nextInt(3)));
+            }
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    private String entry(final String ruleLength, final boolean multiWord) {
+        final int length;
+        switch (ruleLength) {
+        case "short":
+            length = 1 + random.nextInt(3);
+            break;
+        case "long":
+            length = 4 + random.nextInt(7);
+            break;
+        case "mixed":
+            length = random.nextInt(10) < 7 ? 1 + random.nextInt(3) : 4 + random.nextInt(7);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown rule length: " + ruleLength);
+        }
+        final String entry = cjk(length);
+        if (!multiWord || length <= 3) {
+            return entry;
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i += 3) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(entry, i, Math.min(i + 3, length));
+        }
+        return sb.toString();
+    }
+
+    // katakana and a part of the CJK ideographs
+    private String cjk(final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = random.nextInt(3) == 0 ? (char) (0x30A1 + random.nextInt(0x56)) : (char) (0x4E00 + random.nextInt(2000));
+        }
+        return new String(chars);
+    }
+
+    private String latin(final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = LATIN.charAt(random.nextInt(LATIN.length()));
+        }
+        return new String(chars);
+    }
+}
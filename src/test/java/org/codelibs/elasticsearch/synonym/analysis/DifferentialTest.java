@@ -0,0 +1,444 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.FilteringTokenFilter;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.junit.Test;
+
+/**
+ * Compares the terms, offsets, position increments and position lengths of an engine with a reference
+ * over random dictionaries and texts, and shrinks a differing case to a minimal one before failing.
+ * ngram_synonym is compared with {@link ReferenceNGramSynonymTokenizer}, the tokenizer as of the baseline, over the
+ * settings it supports, with small windows and long texts so blocks stream through several windows. synonym_filter is compared with Lucene's SynonymFilter, which it is forked from, and its
+ * graph output is checked for a valid token graph.
+ *
+ * <p>Run longer with -Dtests.differential.rounds=100000, and another seed with -Dtests.differential.seed=N.</p>
+ */
+public class DifferentialTest {
+
+  private static final int ROUNDS = Integer.getInteger("tests.differential.rounds", 300);
+
+  private static final long SEED = Long.getLong("tests.differential.seed", 0L);
+
+  // letters in both cases, kana, a digit and a surrogate pair
+  private static final String[] WORD_CHARS = { "a", "b", "A", "B", "あ", "い", "1", "𠮷" };
+
+  private static final String[] DELIMITERS = { " ", "　", "\t", "\n" };
+
+  private static final String EXCEPTION = "exception=";
+
+  // time to shrink a differing case, which may be a long text, before reporting the smallest one found
+  private static final long SHRINK_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /**
+   * Creates the token stream under test for a case.
+   */
+  interface Engine {
+    TokenStream create(Case c, SynonymMap synonyms, Reader reader);
+  }
+
+  /**
+   * A dictionary, a text and the settings of one comparison.
+   */
+  static final class Case {
+    final List<String> rules;
+
+    final String text;
+
+    final int n;
+
+    final boolean expand;
+
+    final boolean ignoreCase;
+
+    // rules are split into words, as for synonym_filter, instead of kept whole as for ngram_synonym
+    final boolean words;
+
+    // window of ngram_synonym, small to stream blocks through several windows
+    final int windowSize;
+
+    Case(List<String> rules, String text, int n, boolean expand, boolean ignoreCase, boolean words, int windowSize) {
+      this.rules = rules;
+      this.text = text;
+      this.n = n;
+      this.expand = expand;
+      this.ignoreCase = ignoreCase;
+      this.words = words;
+      this.windowSize = windowSize;
+    }
+
+    Case with(List<String> rules, String text) {
+      return new Case(rules, text, n, expand, ignoreCase, words, windowSize);
+    }
+
+    @Override
+    public String toString() {
+      return "rules=" + rules + ", text=[" + escape(text) + "], n=" + n + ", expand=" + expand + ", ignore_case=" + ignoreCase
+          + ", words=" + words + ", window_size=" + windowSize;
+    }
+  }
+
+  private static final Engine REFERENCE_TOKENIZER = (c, synonyms, reader) -> {
+    final Tokenizer tokenizer = new ReferenceNGramSynonymTokenizer(c.n, NGramSynonymTokenizer.DEFAULT_DELIMITERS, c.expand,
+        c.ignoreCase, synonyms);
+    tokenizer.setReader(reader);
+    return tokenizer;
+  };
+
+  private static final Engine TOKENIZER = (c, synonyms, reader) -> {
+    final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(c.n, NGramSynonymTokenizer.DEFAULT_DELIMITERS, c.expand,
+        SynonymNormalizer.forMatching(c.ignoreCase), new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE,
+        new SynonymStats());
+    tokenizer.windowSize = c.windowSize;
+    tokenizer.setReader(reader);
+    return tokenizer;
+  };
+
+  private static final Engine LUCENE_FILTER = (c, synonyms, reader) -> {
+    @SuppressWarnings("deprecation")
+    final TokenStream stream = new org.apache.lucene.analysis.synonym.SynonymFilter(whitespace(reader), synonyms, c.ignoreCase);
+    return stream;
+  };
+
+  private static final Engine FILTER = (c, synonyms, reader) -> new SynonymFilter(whitespace(reader),
+      new TestSynonymLoader(synonyms), SynonymNormalizer.forMatching(c.ignoreCase), Integer.MAX_VALUE, Integer.MAX_VALUE,
+      new SynonymStats(), false);
+
+  private static final Engine GRAPH_FILTER = (c, synonyms, reader) -> new SynonymFilter(whitespace(reader),
+      new TestSynonymLoader(synonyms), SynonymNormalizer.forMatching(c.ignoreCase), Integer.MAX_VALUE, Integer.MAX_VALUE,
+      new SynonymStats(), true);
+
+  @Test
+  public void testNGramSynonymTokenizer() throws Exception {
+    assertSameTokens(REFERENCE_TOKENIZER, TOKENIZER, DifferentialTest::randomTokenizerCase);
+  }
+
+  @Test
+  public void testSynonymFilter() throws Exception {
+    assertSameTokens(LUCENE_FILTER, FILTER, DifferentialTest::randomFilterCase);
+  }
+
+  @Test
+  public void testSynonymFilterGraph() throws Exception {
+    final Random random = new Random(SEED);
+    for (int round = 0; round < ROUNDS; round++) {
+      final Case c = randomFilterCase(random);
+      final String tokens = analyze(GRAPH_FILTER, c);
+      final String flatTokens = analyze(FILTER, c);
+      // a case rejected without graph output too, e.g. an empty dictionary, is skipped
+      if (tokens == null || flatTokens.startsWith(EXCEPTION)) {
+        continue;
+      }
+      final String error = checkGraph(c, tokens);
+      assertNull("Round " + round + ": " + error + "\n  case: " + c + "\n  tokens: " + tokens, error);
+
+      // the same terms as without graph output, only placed differently
+      assertEquals("Round " + round + ": " + c, getTerms(flatTokens), getTerms(tokens));
+
+      // single-word rules need no position lengths, so the output is the same as without graph output
+      if (c.rules.stream().noneMatch(rule -> rule.contains(" "))) {
+        assertEquals("Round " + round + ": " + c, flatTokens, tokens);
+      }
+    }
+  }
+
+  @Test
+  public void testShrink() throws Exception {
+    // an engine dropping the "b" tokens
+    final Engine broken = (c, synonyms, reader) -> new FilteringTokenFilter(TOKENIZER.create(c, synonyms, reader)) {
+      private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+      @Override
+      protected boolean accept() {
+        return !"b".equals(termAtt.toString());
+      }
+    };
+    final Case c = new Case(Arrays.asList("a,b", "ab,い"), "ab　aab bい", 1, true, false, false,
+        NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE);
+    assertNotEquals(analyze(REFERENCE_TOKENIZER, c), analyze(broken, c));
+
+    final Case shrunk = shrink(REFERENCE_TOKENIZER, broken, c);
+    assertEquals(Collections.emptyList(), shrunk.rules);
+    assertEquals("b", shrunk.text);
+  }
+
+  /**
+   * Returns why the tokens of a case are not a valid token graph, or null if they are: positions and start offsets
+   * do not go backwards, position lengths are positive, and every token but the first starts where another one ends,
+   * and ends where another one starts or at the end of the graph.
+   */
+  static String checkGraph(Case c, String tokens) {
+    if (tokens.contains(EXCEPTION)) {
+      return "exception";
+    }
+    final List<int[]> arcs = new ArrayList<>();
+    int position = -1;
+    int lastStartOffset = 0;
+    int endPosition = 0;
+    for (String token : tokens.split(" ")) {
+      if (token.startsWith("end=")) {
+        continue;
+      }
+      final int[] values = parseToken(token);
+      final int startOffset = values[0];
+      final int endOffset = values[1];
+      final int posInc = values[2];
+      final int posLen = values[3];
+      if (position < 0 && posInc < 1) {
+        return "first position increment " + posInc;
+      }
+      if (posInc < 0 || posLen < 1) {
+        return "position increment " + posInc + ", position length " + posLen + " of " + token;
+      }
+      if (startOffset < lastStartOffset || startOffset > endOffset || endOffset > c.text.length()) {
+        return "offsets of " + token;
+      }
+      position += posInc;
+      lastStartOffset = startOffset;
+      arcs.add(new int[] { position, position + posLen });
+      endPosition = Math.max(endPosition, position + posLen);
+    }
+    for (int[] arc : arcs) {
+      boolean reached = arc[0] == arcs.get(0)[0];
+      boolean continued = arc[1] == endPosition;
+      for (int[] other : arcs) {
+        reached |= other[1] == arc[0];
+        continued |= other[0] == arc[1];
+      }
+      if (!reached || !continued) {
+        return "arc " + arc[0] + "->" + arc[1] + " is " + (reached ? "a dead end" : "unreachable");
+      }
+    }
+    return null;
+  }
+
+  // startOffset, endOffset, posInc, posLen of "term[start,end]+posInc/posLen"
+  private static int[] parseToken(String token) {
+    final int open = token.lastIndexOf('[');
+    final int comma = token.indexOf(',', open);
+    final int close = token.indexOf("]+", comma);
+    final int slash = token.indexOf('/', close);
+    return new int[] { Integer.parseInt(token.substring(open + 1, comma)), Integer.parseInt(token.substring(comma + 1, close)),
+        Integer.parseInt(token.substring(close + 2, slash)), Integer.parseInt(token.substring(slash + 1)) };
+  }
+
+  // the sorted terms of the tokens
+  private static List<String> getTerms(String tokens) {
+    final List<String> terms = new ArrayList<>();
+    for (String token : tokens.split(" ")) {
+      if (!token.startsWith("end=")) {
+        terms.add(token.substring(0, token.lastIndexOf('[')));
+      }
+    }
+    Collections.sort(terms);
+    return terms;
+  }
+
+  private static void assertSameTokens(Engine reference, Engine candidate, Function<Random, Case> generator) {
+    final Random random = new Random(SEED);
+    for (int round = 0; round < ROUNDS; round++) {
+      final Case c = generator.apply(random);
+      if (differs(reference, candidate, c)) {
+        final Case shrunk = shrink(reference, candidate, c);
+        fail("Round " + round + " differs. Minimal case: " + shrunk + "\n  reference: " + analyze(reference, shrunk)
+            + "\n  candidate: " + analyze(candidate, shrunk) + "\nOriginal case: " + c);
+      }
+    }
+  }
+
+  // a case the reference fails on, e.g. Lucene's filter on an empty dictionary, is skipped
+  private static boolean differs(Engine reference, Engine candidate, Case c) {
+    final String expected = analyze(reference, c);
+    return expected != null && !expected.startsWith(EXCEPTION) && !expected.equals(analyze(candidate, c));
+  }
+
+  // removes rules, chunks of the text and chars of the rules while the engines still differ, until time runs out
+  static Case shrink(Engine reference, Engine candidate, Case c) {
+    final long deadline = System.nanoTime() + SHRINK_NANOS;
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (int i = 0; i < c.rules.size(); i++) {
+        final List<String> rules = new ArrayList<>(c.rules);
+        rules.remove(i);
+        final Case s = c.with(rules, c.text);
+        if (System.nanoTime() - deadline < 0 && differs(reference, candidate, s)) {
+          c = s;
+          i--;
+          progress = true;
+        }
+      }
+
+      for (int size = Math.max(c.text.codePointCount(0, c.text.length()) / 2, 1); size >= 1; size /= 2) {
+        for (int start = 0; start < c.text.codePointCount(0, c.text.length()); ) {
+          final String text = removeCodePoints(c.text, start, size);
+          final Case s = c.with(c.rules, text);
+          if (!text.equals(c.text) && System.nanoTime() - deadline < 0 && differs(reference, candidate, s)) {
+            c = s;
+            progress = true;
+          } else {
+            start += size;
+          }
+        }
+      }
+
+      for (int i = 0; i < c.rules.size(); i++) {
+        final String rule = c.rules.get(i);
+        for (int start = 0; start < rule.codePointCount(0, rule.length()); ) {
+          final List<String> rules = new ArrayList<>(c.rules);
+          rules.set(i, removeCodePoints(rules.get(i), start, 1));
+          final Case s = c.with(rules, c.text);
+          if (System.nanoTime() - deadline < 0 && differs(reference, candidate, s)) {
+            c = s;
+            progress = true;
+          } else {
+            start++;
+          }
+        }
+      }
+    }
+    return c;
+  }
+
+  /**
+   * Returns the tokens as "term[start,end]+posInc/posLen", or null if the dictionary of the case is invalid.
+   */
+  static String analyze(Engine engine, Case c) {
+    final SynonymMap synonyms;
+    try {
+      synonyms = TestSynonymLoader.parse(String.join("\n", c.rules), c.expand, new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+          final Tokenizer tokenizer = c.words ? new WhitespaceTokenizer() : new KeywordTokenizer();
+          return new TokenStreamComponents(tokenizer, c.ignoreCase ? new LowerCaseFilter(tokenizer) : tokenizer);
+        }
+      });
+    } catch (Exception e) {
+      return null;
+    }
+
+    final StringBuilder sb = new StringBuilder();
+    try (TokenStream stream = engine.create(c, synonyms, new StringReader(c.text))) {
+      final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+      final OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+      final PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+      final PositionLengthAttribute posLenAtt = stream.addAttribute(PositionLengthAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()) {
+        sb.append(escape(termAtt.toString())).append('[').append(offsetAtt.startOffset()).append(',')
+            .append(offsetAtt.endOffset()).append("]+").append(posIncAtt.getPositionIncrement()).append('/')
+            .append(posLenAtt.getPositionLength()).append(' ');
+      }
+      stream.end();
+      sb.append("end=").append(offsetAtt.endOffset());
+    } catch (IOException | RuntimeException e) {
+      sb.append(EXCEPTION).append(e);
+    }
+    return sb.toString();
+  }
+
+  private static Case randomTokenizerCase(Random random) {
+    final List<String> rules = new ArrayList<>();
+    for (int i = random.nextInt(8); i > 0; i--) {
+      rules.add(randomRule(random, () -> randomChars(random, WORD_CHARS, 1 + random.nextInt(4))));
+    }
+    // one in ten texts is long, with long blocks, and runs over the read buffer of the tokenizer
+    final boolean longText = random.nextInt(10) == 0;
+    final StringBuilder text = new StringBuilder();
+    for (int i = longText ? 500 + random.nextInt(1500) : random.nextInt(40); i > 0; i--) {
+      text.append(random.nextInt(longText ? 20 : 5) == 0 ? randomChars(random, DELIMITERS, 1 + random.nextInt(3))
+          : randomChars(random, WORD_CHARS, 1 + random.nextInt(6)));
+    }
+    final int windowSize = random.nextInt(4) == 0 ? NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE : 1 + random.nextInt(64);
+    return new Case(rules, text.toString(), 1 + random.nextInt(3), random.nextBoolean(), random.nextBoolean(), false,
+        windowSize);
+  }
+
+  private static Case randomFilterCase(Random random) {
+    final List<String> rules = new ArrayList<>();
+    for (int i = random.nextInt(8); i > 0; i--) {
+      rules.add(randomRule(random, () -> randomWords(random, 1 + random.nextInt(3), " ")));
+    }
+    final String text = randomWords(random, random.nextInt(20), null);
+    return new Case(rules, text, 1, random.nextBoolean(), random.nextBoolean(), true, NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE);
+  }
+
+  // "x,y[,z]" or "x=>y[,z]"
+  private static String randomRule(Random random, Supplier<String> entry) {
+    final StringBuilder sb = new StringBuilder(entry.get());
+    sb.append(random.nextBoolean() ? "," : "=>").append(entry.get());
+    if (random.nextInt(3) == 0) {
+      sb.append(',').append(entry.get());
+    }
+    return sb.toString();
+  }
+
+  // words of 1 or 2 chars, separated by the separator or by random whitespace runs
+  private static String randomWords(Random random, int count, String separator) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0 || separator == null && random.nextInt(5) == 0) {
+        sb.append(separator != null ? separator : randomChars(random, new String[] { " ", "　", "\t" }, 1 + random.nextInt(2)));
+      }
+      sb.append(randomChars(random, WORD_CHARS, 1 + random.nextInt(2)));
+    }
+    return sb.toString();
+  }
+
+  private static String randomChars(Random random, String[] chars, int count) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      sb.append(chars[random.nextInt(chars.length)]);
+    }
+    return sb.toString();
+  }
+
+  private static String removeCodePoints(String s, int start, int count) {
+    final int begin = s.offsetByCodePoints(0, start);
+    final int end = s.offsetByCodePoints(begin, Math.min(count, s.codePointCount(begin, s.length())));
+    return s.substring(0, begin) + s.substring(end);
+  }
+
+  private static String escape(String s) {
+    final StringBuilder sb = new StringBuilder();
+    s.codePoints().forEach(cp -> {
+      if (cp < 0x20 || cp > 0x7e && cp < 0x3000 || cp >= 0x10000) {
+        sb.append(String.format(Locale.ROOT, "\\u{%X}", cp));
+      } else {
+        sb.appendCodePoint(cp);
+      }
+    });
+    return sb.toString();
+  }
+
+  private static Tokenizer whitespace(Reader reader) {
+    final Tokenizer tokenizer = new WhitespaceTokenizer();
+    tokenizer.setReader(reader);
+    return tokenizer;
+  }
+
+}
@@ -21,18 +21,20 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.text.ParseException;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
-import org.apache.lucene.analysis.synonym.SolrSynonymParser;
 import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
-import org.codelibs.elasticsearch.synonym.analysis.NGramSynonymTokenizer.MyToken;
+import org.elasticsearch.common.settings.Settings;
 import org.junit.Test;
 
 public class NGramSynonymTokenizerTest {
@@ -105,6 +107,45 @@ public class NGramSynonymTokenizerTest {
         src2.substring(0, NGramSynonymTokenizer.BUFFER_SIZE - 2));
   }
   
+  @Test
+  public void testGetNextBlockDelimiterClasses() throws Exception {
+    NGramSynonymTokenizer tokenizer = getTokenizer("あいう、かき。さ", Delimiters.compile("", Arrays.asList("category:P")));
+    assertBlocks(tokenizer, "0,4,7", "あいう", "かき", "さ");
+
+    tokenizer = getTokenizer("あい「かき」 さ", Delimiters.compile(" ", Arrays.asList("range:U+3000-U+303F")));
+    assertBlocks(tokenizer, "0,3,7", "あい", "かき", "さ");
+
+    // a supplementary delimiter and a supplementary char in a block
+    tokenizer = getTokenizer("あ\uD83D\uDE00い\uD842\uDFB7う", Delimiters.compile("", Arrays.asList("category:So")));
+    assertBlocks(tokenizer, "0,3", "あ", "い\uD842\uDFB7う");
+
+    tokenizer = getTokenizer("ab-cd_ef", Delimiters.compile("", Arrays.asList("regex:[-_]")));
+    assertBlocks(tokenizer, "0,3,6", "ab", "cd", "ef");
+  }
+
+  @Test
+  public void testDelimiters() throws Exception {
+    Delimiters delimiters = Delimiters.compile(" ", Arrays.asList("category:Pd", "script:Han", "range:1F600-1F64F"));
+    assertTrue(delimiters.contains(' '));
+    assertTrue(delimiters.contains('-'));
+    assertTrue(delimiters.contains('漢'));
+    assertTrue(delimiters.contains(0x20BB7));
+    assertTrue(delimiters.contains(0x1F600));
+    assertTrue(delimiters.contains(0x1F64F));
+    assertFalse(delimiters.contains(0x1F650));
+    assertFalse(delimiters.contains('a'));
+    assertFalse(delimiters.contains('、'));
+
+    for (String spec : new String[] { "Pd", "category:Xx", "script:Foo", "range:30-20", "regex:[", "foo:bar" }) {
+      try {
+        Delimiters.compile("", Arrays.asList(spec));
+        fail(spec);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
   private NGramSynonymTokenizer getTokenizer(String input) throws IOException {
     NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(
         NGramSynonymTokenizer.DEFAULT_N_SIZE,
@@ -113,6 +154,16 @@ public class NGramSynonymTokenizerTest {
     tokenizer.reset();
     return tokenizer;
   }
+
+  private NGramSynonymTokenizer getTokenizer(String input, Delimiters delimiters) throws IOException {
+    NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(
+        NGramSynonymTokenizer.DEFAULT_N_SIZE, NGramSynonymTokenizer.DEFAULT_N_SIZE, delimiters, false,
+        NGramSynonymTokenizer.Mode.INDEX, SynonymNormalizer.forMatching(true), null,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+    tokenizer.setReader(new StringReader(input));
+    tokenizer.reset();
+    return tokenizer;
+  }
   
   private void assertBlocks(NGramSynonymTokenizer tokenizer, String expBlkStarts, String... expBlocks) throws Exception {
     String[] params = expBlkStarts.split(",");
@@ -131,7 +182,7 @@ public class NGramSynonymTokenizerTest {
     for(int i = 0; i < len; i++){
       assertTrue(tokenizer.getNextBlock());
       assertEquals(expBlkStarts[i], tokenizer.blkStart);
-      assertEquals(expBlocks[i], tokenizer.block.toString());
+      assertEquals(expBlocks[i], tokenizer.getBlock());
     }
     
     assertFalse(tokenizer.getNextBlock());
@@ -149,77 +200,98 @@ public class NGramSynonymTokenizerTest {
   }
   
   @Test
-  public void testMyTokensComparator() throws Exception {
-    PriorityQueue<MyToken> pq = new PriorityQueue<MyToken>(10, new NGramSynonymTokenizer.MyTokensComparator());
+  public void testTokenQueueOrder() throws Exception {
+    NGramTokenQueue queue = new NGramTokenQueue();
     
-    MyToken t1 = new MyToken("", 10, 11, 1);
-    pq.add(t1);
-    MyToken t2 = new MyToken("",  9, 11, 0);
-    pq.add(t2);
-    MyToken t3 = new MyToken("",  9, 11, 1);
-    pq.add(t3);
-    MyToken t4 = new MyToken("",  8, 11, 1);
-    pq.add(t4);
-    MyToken t5 = new MyToken("",  7, 11, 1);
-    pq.add(t5);
-    MyToken t6 = new MyToken("",  7, 10, 1);
-    pq.add(t6);
+    int t1 = addToken(queue, "", 10, 11, 1);
+    int t2 = addToken(queue, "",  9, 11, 0);
+    int t3 = addToken(queue, "",  9, 11, 1);
+    int t4 = addToken(queue, "",  8, 11, 1);
+    int t5 = addToken(queue, "",  7, 11, 1);
+    int t6 = addToken(queue, "",  7, 10, 1);
     
-    assertEquals(t6, pq.poll());
-    assertEquals(t5, pq.poll());
-    assertEquals(t4, pq.poll());
-    assertEquals(t3, pq.poll());
-    assertEquals(t2, pq.poll());
-    assertEquals(t1, pq.poll());
-    assertNull(pq.poll());
+    assertEquals(t6, queue.poll());
+    assertEquals(t5, queue.poll());
+    assertEquals(t4, queue.poll());
+    assertEquals(t3, queue.poll());
+    assertEquals(t2, queue.poll());
+    assertEquals(t1, queue.poll());
+    assertEquals(-1, queue.poll());
   }
   
   @Test
-  public void testMyTokenIdentical() throws Exception {
-    MyToken t1 = new MyToken("token", 10, 11, 1);
-    MyToken t2 = new MyToken("token", 10, 11, 1);
-    assertFalse(t1.identical(t2));
-    assertFalse(t2.identical(t2));
-    assertFalse(t2.identical(t1));
-
-    MyToken t3 = new MyToken("token", 10, 11, 0);
-    assertTrue(t1.identical(t3));
-    assertFalse(t3.identical(t1));
-
-    MyToken t4 = new MyToken("token", 10, 11, 0);
-    assertTrue(t1.identical(t4));
-    assertTrue(t3.identical(t4));
-    assertTrue(t4.identical(t3));
+  public void testTokenQueueIdentical() throws Exception {
+    NGramTokenQueue queue = new NGramTokenQueue();
+    int t1 = addToken(queue, "token", 10, 11, 1);
+    int t2 = addToken(queue, "token", 10, 11, 1);
+    assertFalse(queue.identical(t1, t2));
+    assertFalse(queue.identical(t2, t2));
+    assertFalse(queue.identical(t2, t1));
+
+    int t3 = addToken(queue, "token", 10, 11, 0);
+    assertTrue(queue.identical(t1, t3));
+    assertFalse(queue.identical(t3, t1));
+
+    int t4 = addToken(queue, "token", 10, 11, 0);
+    assertTrue(queue.identical(t1, t4));
+    assertTrue(queue.identical(t3, t4));
+    assertTrue(queue.identical(t4, t3));
   }
   
   @Test
-  public void testGetNextUniqueToken() throws Exception {
-    PriorityQueue<MyToken> pq = new PriorityQueue<MyToken>(10, new NGramSynonymTokenizer.MyTokensComparator());
+  public void testTokenQueuePollUnique() throws Exception {
+    NGramTokenQueue queue = new NGramTokenQueue();
     
-    MyToken t1 = new MyToken("t1", 10, 11, 1);
-    pq.add(t1);
-    MyToken t2 = new MyToken("t2",  9, 11, 0);
-    pq.add(t2);
-    MyToken t3 = new MyToken("t3",  9, 11, 1);
-    pq.add(t3);
-    MyToken t4 = new MyToken("t2",  9, 11, 0);
-    pq.add(t4);
-    MyToken t5 = new MyToken("t5",  8, 11, 1);
-    pq.add(t5);
-    MyToken t6 = new MyToken("t5",  8, 11, 0);
-    pq.add(t6);
-    MyToken t7 = new MyToken("t7",  7, 11, 1);
-    pq.add(t7);
-    MyToken t8 = new MyToken("t8",  7, 10, 1);
-    pq.add(t8);
+    int t1 = addToken(queue, "t1", 10, 11, 1);
+    int t2 = addToken(queue, "t2",  9, 11, 0);
+    int t3 = addToken(queue, "t3",  9, 11, 1);
+    addToken(queue, "t2",  9, 11, 0);
+    int t5 = addToken(queue, "t5",  8, 11, 1);
+    addToken(queue, "t5",  8, 11, 0);
+    int t7 = addToken(queue, "t7",  7, 11, 1);
+    int t8 = addToken(queue, "t8",  7, 10, 1);
     
-    assertEquals(t8, NGramSynonymTokenizer.getNextUniqueToken(pq, null));
-    assertEquals(t7, NGramSynonymTokenizer.getNextUniqueToken(pq, t8));
-    assertEquals(t5, NGramSynonymTokenizer.getNextUniqueToken(pq, t7));
-    assertEquals(t3, NGramSynonymTokenizer.getNextUniqueToken(pq, t5));
-    assertEquals(t2, NGramSynonymTokenizer.getNextUniqueToken(pq, t3));
-    assertEquals(t1, NGramSynonymTokenizer.getNextUniqueToken(pq, t2));
-    assertNull(NGramSynonymTokenizer.getNextUniqueToken(pq, t1));
+    assertEquals(t8, queue.pollUnique());
+    assertEquals(t7, queue.pollUnique());
+    assertEquals(t5, queue.pollUnique());
+    assertEquals(t3, queue.pollUnique());
+    assertEquals(t2, queue.pollUnique());
+    assertEquals(t1, queue.pollUnique());
+    assertEquals(-1, queue.pollUnique());
+  }
+  
+  @Test
+  public void testTokenQueueOrderIsStable() throws Exception {
+    final Random random = new Random(0);
+    final NGramTokenQueue queue = new NGramTokenQueue();
+    for(int round = 0; round < 100; round++){
+      queue.clear();
+      final int size = random.nextInt(200);
+      final int[][] tokens = new int[size][];
+      final List<Integer> expected = new ArrayList<>();
+      for(int i = 0; i < size; i++){
+        final int start = random.nextInt(30);
+        tokens[i] = new int[]{start, start + 1 + random.nextInt(4), random.nextInt(2), random.nextInt(3)};
+        queue.add(new char[0], 0, 0, tokens[i][0], tokens[i][1], tokens[i][2], tokens[i][3]);
+        expected.add(i);
+      }
+      // the order of MyTokensComparator, ties in insertion order
+      Collections.sort(expected, (t1, t2) -> {
+        final int[] a1 = tokens[t1], a2 = tokens[t2];
+        if(a1[0] != a2[0]) return Integer.compare(a1[0], a2[0]);
+        if(a1[1] != a2[1]) return Integer.compare(a1[1], a2[1]);
+        if(a1[2] != a2[2]) return Integer.compare(a2[2], a1[2]);
+        return Integer.compare(a1[3], a2[3]);
+      });
+      for(int token : expected){
+        assertEquals(token, queue.poll());
+      }
+      assertEquals(-1, queue.poll());
+    }
+  }
+  
+  private static int addToken(NGramTokenQueue queue, String word, int startOffset, int endOffset, int posInc){
+    return queue.add(word.toCharArray(), 0, word.length(), startOffset, endOffset, posInc, NGramTokenQueue.UNUSED_SEQ);
   }
 
   @Test
@@ -1353,6 +1425,408 @@ public class NGramSynonymTokenizerTest {
     assertTokenStream(stream, "gfed,0,4,1/fedc,1,5,1/edc,2,5,0/dc,3,5,0/c,4,5,0/a,5,6,1/aa,5,6,0/b,6,7,1/bb,6,7,0/c,7,8,1/cd,7,9,0/cde,7,10,0/cdef,7,11,0/defg,8,12,1/efg,9,12,0/fg,10,12,0/g,11,12,0/a,12,13,1/aa,12,13,0");
   }
 
+  @Test
+  public void testExpansionLimits() throws Exception {
+    final SynonymMap synonyms = new NGramSynonymTokenizerTestAnalyzer(1, true, "a,aa,aaa/b,bb").synonyms;
+
+    SynonymStats stats = new SynonymStats();
+    Tokenizer tokenizer = new NGramSynonymTokenizer(1, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), 1, Integer.MAX_VALUE, stats);
+    tokenizer.setReader(new StringReader("ab"));
+    tokenizer.reset();
+    assertTokenStream(tokenizer, "a,0,1,1/aa,0,1,0/b,1,2,1/bb,1,2,0");
+    assertEquals(1, stats.getMatchLimitHits());
+    assertEquals(0, stats.getDocLimitHits());
+    tokenizer.close();
+
+    stats = new SynonymStats();
+    tokenizer = new NGramSynonymTokenizer(1, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), Integer.MAX_VALUE, 2, stats);
+    tokenizer.setReader(new StringReader("ab a"));
+    tokenizer.reset();
+    assertTokenStream(tokenizer, "a,0,1,1/aa,0,1,0/aaa,0,1,0/b,1,2,1/a,3,4,1");
+    assertEquals(0, stats.getMatchLimitHits());
+    assertEquals(1, stats.getDocLimitHits());
+    tokenizer.close();
+
+    // no lookup after the limit, even in the same block
+    stats = new SynonymStats();
+    final NGramSynonymTokenizer limited = new NGramSynonymTokenizer(1, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), Integer.MAX_VALUE, 1, stats);
+    limited.setReader(new StringReader("babab"));
+    limited.reset();
+    assertTokenStream(limited, "b,0,1,1/bb,0,1,0/a,1,2,1/b,2,3,1/a,3,4,1/b,4,5,1");
+    assertEquals(1, limited.getLookupCount());
+    assertEquals(1, stats.getDocLimitHits());
+    limited.close();
+  }
+
+  @Test
+  public void testRuleHits() throws Exception {
+    final SynonymMap synonyms = new NGramSynonymTokenizerTestAnalyzer(1, true, "a,aa/bc,d").synonyms;
+
+    SynonymStats stats = new SynonymStats(1);
+    Tokenizer tokenizer = new NGramSynonymTokenizer(1, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE, stats);
+    tokenizer.setReader(new StringReader("abcxa"));
+    tokenizer.reset();
+    while (tokenizer.incrementToken()) {
+      // consume
+    }
+    tokenizer.end();
+    tokenizer.close();
+    assertEquals("a=2/aa=0/bc=1/d=0/", SynonymFilterTest.getRuleHits(stats.getRuleHits()));
+
+    // one in two matches is counted, and the hits are scaled back
+    stats = new SynonymStats(2);
+    tokenizer = new NGramSynonymTokenizer(1, 1, Delimiters.of(NGramSynonymTokenizer.DEFAULT_DELIMITERS), true,
+        NGramSynonymTokenizer.Mode.EDGE, SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), Integer.MAX_VALUE,
+        Integer.MAX_VALUE, stats);
+    tokenizer.setReader(new StringReader("a a a a"));
+    tokenizer.reset();
+    while (tokenizer.incrementToken()) {
+      // consume
+    }
+    tokenizer.end();
+    tokenizer.close();
+    assertEquals("a=4/aa=0/bc=0/d=0/", SynonymFilterTest.getRuleHits(stats.getRuleHits()));
+  }
+
+  @Test
+  public void testNormalization() throws Exception {
+    final SynonymNormalizer normalizer = SynonymNormalizer.of(Arrays.asList("nfkc", "kana"), true);
+    final SynonymMap synonyms = TestSynonymLoader.parse("ｱｲ,かき", true, SynonymLoader.getAnalyzer(normalizer));
+
+    Tokenizer tokenizer = new NGramSynonymTokenizer(2, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        normalizer, new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+    tokenizer.setReader(new StringReader("アイＡＢ"));
+    tokenizer.reset();
+    assertTokenStream(tokenizer, "あい,0,2,1/かき,0,2,0/a,2,3,1/ab,2,4,0");
+    tokenizer.close();
+
+    tokenizer = new NGramSynonymTokenizer(2, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        normalizer, new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+    tokenizer.setReader(new StringReader("ｶｷｱｲ"));
+    tokenizer.reset();
+    assertTokenStream(tokenizer, "かき,0,2,1/あい,0,2,0/あい,2,4,1/かき,2,4,0");
+    tokenizer.close();
+  }
+
+  @Test
+  public void testSupplementarySynonym() throws Exception {
+    Analyzer a = new NGramSynonymTokenizerTestAnalyzer(2, true, "\uD842\uDFB7,吉/野,の");
+    TokenStream stream = a.tokenStream("f", new StringReader("\uD842\uDFB7野家"));
+    stream.reset();
+    assertTokenStream(stream, "\uD842\uDFB7,0,2,1/吉,0,2,0/野,2,3,1/の,2,3,0/家,3,4,1");
+  }
+
+  @Test
+  public void testLeftmostLongestMatch() throws Exception {
+    Analyzer a = new NGramSynonymTokenizerTestAnalyzer(1, true, "ab,p/bcd,q/abcde,r");
+    TokenStream stream = a.tokenStream("f", new StringReader("abcdx"));
+    stream.reset();
+    assertTokenStream(stream, "ab,0,2,1/p,0,2,0/c,2,3,1/d,3,4,1/x,4,5,1");
+
+    stream.close();
+    stream = a.tokenStream("f", new StringReader("xbcde"));
+    stream.reset();
+    assertTokenStream(stream, "x,0,1,1/bcd,1,4,1/q,1,4,0/e,4,5,1");
+
+    stream.close();
+    stream = a.tokenStream("f", new StringReader("abcde"));
+    stream.reset();
+    assertTokenStream(stream, "abcde,0,5,1/r,0,5,0");
+  }
+
+  @Test
+  public void testWindowsGiveSameTokens() throws Exception {
+    final Random random = new Random(0);
+    final String chars = "abcdeAB\uD842\uDFB7あい1";
+    for(int round = 0; round < 200; round++){
+      final StringBuilder rules = new StringBuilder();
+      for(int i = random.nextInt(6); i > 0; i--){
+        rules.append(randomText(random, chars, 1 + random.nextInt(4))).append(',')
+            .append(randomText(random, chars, 1 + random.nextInt(4))).append('\n');
+      }
+      final SynonymMap synonyms = TestSynonymLoader.parse(rules.toString());
+      final int minGram = 1 + random.nextInt(4);
+      final int maxGram = minGram + random.nextInt(3);
+      final boolean expand = random.nextBoolean();
+      final String text = randomText(random, chars + " ", random.nextInt(300));
+
+      final NGramSynonymTokenizer.Mode mode = NGramSynonymTokenizer.Mode.values()[random.nextInt(
+          NGramSynonymTokenizer.Mode.values().length)];
+
+      final boolean mixedScript = random.nextBoolean();
+
+      final String expected = getTokens(minGram, maxGram, expand, mode, mixedScript, synonyms, text,
+          NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE);
+      final String message = "rules=" + rules + " gram=" + minGram + "-" + maxGram + " mode=" + mode + " mixed=" + mixedScript
+          + " text=" + text;
+      assertEquals(message, expected, getTokens(minGram, maxGram, expand, mode, mixedScript, synonyms, text, 1));
+
+      // the settings of the tokenizer before windows give the same tokens as that tokenizer
+      if (minGram == maxGram && mode == NGramSynonymTokenizer.Mode.INDEX && !mixedScript) {
+        assertEquals(message, getReferenceTokens(minGram, expand, synonyms, text), expected);
+      }
+    }
+  }
+
+  @Test
+  public void testMinMaxGram() throws Exception {
+    final SynonymMap noSynonyms = new SynonymMap.Builder(true).build();
+    assertEquals("a,0,1,1/ab,0,2,0/b,1,2,1/bc,1,3,0/c,2,3,1/",
+        getTokens(1, 2, false, noSynonyms, "abc", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+    assertEquals("ab,0,2,1/abc,0,3,0/bc,1,3,1/", getTokens(2, 3, false, noSynonyms, "abc", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+
+    // grams do not cross synonyms; the prev/after-synonym grams are shorter than min_gram
+    final SynonymMap synonyms = TestSynonymLoader.parse("c,x");
+    assertEquals("ab,0,2,1/b,1,2,0/c,2,3,1/x,2,3,0/d,3,4,1/de,3,5,0/def,3,6,0/ef,4,6,1/",
+        getTokens(2, 3, true, synonyms, "abcdef", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+
+    // a single gram size gives the same tokens as n
+    for (int n = 1; n <= 3; n++) {
+      assertEquals(getTokens(n, n, true, synonyms, "abcdef gc", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE),
+          getTokens(n, true, synonyms, "abcdef gc"));
+    }
+  }
+
+  @Test
+  public void testSearchMode() throws Exception {
+    final SynonymMap noSynonyms = new SynonymMap.Builder(true).build();
+    assertEquals("ab,0,2,1/cd,2,4,2/de,3,5,1/",
+        getTokens(2, 2, true, NGramSynonymTokenizer.Mode.SEARCH, noSynonyms, "abcde", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+    assertEquals("abc,0,3,1/cde,2,5,2/", getTokens(1, 3, true, NGramSynonymTokenizer.Mode.SEARCH, noSynonyms, "abcde",
+        NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+
+    assertEquals("ab,0,2,1/c,2,3,1/x,2,3,0/de,3,5,1/ef,4,6,1/", getTokens(2, 2, true,
+        NGramSynonymTokenizer.Mode.SEARCH, TestSynonymLoader.parse("c,x"), "abcdef", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+  }
+
+  @Test
+  public void testSearchModeMatchesIndexPositions() throws Exception {
+    final Random random = new Random(0);
+    final String chars = "abcdeABあい1";
+    for(int round = 0; round < 200; round++){
+      final StringBuilder rules = new StringBuilder();
+      for(int i = random.nextInt(6); i > 0; i--){
+        rules.append(randomText(random, chars, 1 + random.nextInt(4))).append(',')
+            .append(randomText(random, chars, 1 + random.nextInt(4))).append('\n');
+      }
+      final SynonymMap synonyms = TestSynonymLoader.parse(rules.toString());
+      final int minGram = 1 + random.nextInt(3);
+      final int maxGram = minGram + random.nextInt(3);
+      final boolean expand = random.nextBoolean();
+      final String text = randomText(random, chars + " ", random.nextInt(100));
+      final boolean mixedScript = random.nextBoolean();
+
+      // every token of the search mode is a token of the index mode, at the same position
+      final List<String> indexTokens = toPositionedTokens(getTokens(minGram, maxGram, expand,
+          NGramSynonymTokenizer.Mode.INDEX, mixedScript, synonyms, text, NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+      final List<String> searchTokens = toPositionedTokens(getTokens(minGram, maxGram, expand,
+          NGramSynonymTokenizer.Mode.SEARCH, mixedScript, synonyms, text, NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+      for(String token : searchTokens){
+        assertTrue("rules=" + rules + " gram=" + minGram + "-" + maxGram + " text=" + text + " token=" + token,
+            indexTokens.contains(token));
+      }
+    }
+  }
+
+  @Test
+  public void testBoundaryGrams() throws Exception {
+    final SynonymMap synonyms = TestSynonymLoader.parse("a,b");
+
+    SynonymStats stats = new SynonymStats();
+    assertEquals("xyz,0,3,1/yz,1,3,0/z,2,3,0/a,3,4,1/b,3,4,0/x,4,5,1/xy,4,6,0/xyz,4,7,0/",
+        getBoundaryTokens(synonyms, true, true, 2, stats));
+    assertEquals(8, stats.getTokens());
+    assertEquals(4, stats.getBoundaryTokens());
+    assertEquals(0, stats.getSkippedBoundaryTokens());
+
+    stats = new SynonymStats();
+    assertEquals("xyz,0,3,1/a,3,4,1/b,3,4,0/x,4,5,1/xyz,4,7,0/", getBoundaryTokens(synonyms, false, true, 1, stats));
+    assertEquals(5, stats.getTokens());
+    assertEquals(1, stats.getBoundaryTokens());
+    assertEquals(3, stats.getSkippedBoundaryTokens());
+
+    stats = new SynonymStats();
+    assertEquals("xyz,0,3,1/a,3,4,1/b,3,4,0/xyz,4,7,1/", getBoundaryTokens(synonyms, false, false, 2, stats));
+    assertEquals(4, stats.getSkippedBoundaryTokens());
+  }
+
+  private static String getBoundaryTokens(SynonymMap synonyms, boolean emitPrev, boolean emitAfter, int maxBoundaryGram,
+      SynonymStats stats) throws Exception {
+    final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(3, 3,
+        Delimiters.of(NGramSynonymTokenizer.DEFAULT_DELIMITERS), true, NGramSynonymTokenizer.Mode.INDEX,
+        SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE, stats);
+    tokenizer.setBoundaryGrams(emitPrev, emitAfter, maxBoundaryGram);
+    tokenizer.setReader(new StringReader("xyzaxyz"));
+    tokenizer.reset();
+    final StringBuilder sb = new StringBuilder();
+    while(tokenizer.incrementToken()){
+      sb.append(tokenizer.getAttribute(CharTermAttribute.class)).append(',')
+          .append(tokenizer.getAttribute(OffsetAttribute.class).startOffset()).append(',')
+          .append(tokenizer.getAttribute(OffsetAttribute.class).endOffset()).append(',')
+          .append(tokenizer.getAttribute(PositionIncrementAttribute.class).getPositionIncrement()).append('/');
+    }
+    tokenizer.end();
+    tokenizer.close();
+    return sb.toString();
+  }
+
+  @Test
+  public void testMixedScript() throws Exception {
+    final SynonymMap synonyms = TestSynonymLoader.parse("iphone,アイフォン\n価格,値段");
+    final int window = NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE;
+    final NGramSynonymTokenizer.Mode mode = NGramSynonymTokenizer.Mode.INDEX;
+
+    // a synonym does not match a part of a word
+    assertEquals("iPhone15,0,8,1/の,8,9,1/価格,9,11,1/値段,9,11,0/",
+        getTokens(2, 2, true, mode, true, synonyms, "iPhone15の価格", window));
+    assertEquals("iphone,0,6,1/アイフォン,0,6,0/15,7,9,1/の,9,10,1/価格,10,12,1/値段,10,12,0/",
+        getTokens(2, 2, true, mode, true, synonyms, "iPhone 15の価格", window));
+    assertEquals("値段,0,2,1/価格,0,2,0/は,2,3,1/iphone,3,9,1/アイフォン,3,9,0/",
+        getTokens(2, 2, true, mode, true, synonyms, "値段はiPhone", window));
+    assertEquals("a,0,1,1/は,1,2,1/値段,2,4,1/価格,2,4,0/",
+        getTokens(2, 2, true, mode, true, synonyms, "aは値段", window));
+
+    // words are split at MAX_WORD_LENGTH
+    final String longWord = getLengthDummyBlock(NGramSynonymTokenizer.MAX_WORD_LENGTH + 1, 'a');
+    assertEquals(longWord.substring(0, NGramSynonymTokenizer.MAX_WORD_LENGTH) + ",0,"
+        + NGramSynonymTokenizer.MAX_WORD_LENGTH + ",1/a," + NGramSynonymTokenizer.MAX_WORD_LENGTH + ","
+        + (NGramSynonymTokenizer.MAX_WORD_LENGTH + 1) + ",1/",
+        getTokens(2, 2, true, mode, true, synonyms, longWord, window));
+  }
+
+  @Test
+  public void testEdgeMode() throws Exception {
+    final SynonymMap synonyms = TestSynonymLoader.parse("iphone,アイフォン\nケ,ケー");
+    final NGramSynonymTokenizer.Mode mode = NGramSynonymTokenizer.Mode.EDGE;
+
+    // a term is emitted once per position: the prefix grams of the block come first, then those of shorter matches
+    assertEquals("i,0,1,1/iP,0,2,0/iPh,0,3,0/ア,0,6,0/アイ,0,6,0/アイフ,0,6,0/ケ,7,8,1/ケー,7,9,0/ケース,7,10,0/",
+        getTokens(1, 3, true, mode, synonyms, "iPhone ケース", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+
+    // no synonyms without expand
+    assertEquals("i,0,1,1/iP,0,2,0/iPh,0,3,0/ケ,7,8,1/ケー,7,9,0/ケース,7,10,0/",
+        getTokens(1, 3, false, mode, synonyms, "iPhone ケース", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+
+    // entries shorter than min_gram are not prefix grams
+    assertEquals("ケー,0,2,1/ケ,0,2,0/ケース,0,3,0/", getTokens(2, 3, true, mode, synonyms, "ケース", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+    assertEquals("x,0,1,1/", getTokens(2, 3, true, mode, synonyms, "x", NGramSynonymTokenizer.DEFAULT_WINDOW_SIZE));
+  }
+
+  @Test
+  public void testGraphSetting() throws Exception {
+    final Settings graph = Settings.builder().put("graph", true).build();
+    new NGramSynonymTokenizerFactory(SynonymSlowLogTest.newIndexSettings(Settings.EMPTY), null, "ngram",
+        Settings.builder().put(graph).put("n", 2).build());
+    new NGramSynonymTokenizerFactory(SynonymSlowLogTest.newIndexSettings(Settings.EMPTY), null, "ngram",
+        Settings.builder().put(graph).put("min_gram", 1).put("max_gram", 3).put("mode", "edge").build());
+    try {
+      new NGramSynonymTokenizerFactory(SynonymSlowLogTest.newIndexSettings(Settings.EMPTY), null, "ngram",
+          Settings.builder().put(graph).put("min_gram", 1).put("max_gram", 3).build());
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("graph needs min_gram equal to max_gram, or the edge mode: min_gram=1, max_gram=3", e.getMessage());
+    }
+  }
+
+  // term,start,end,position
+  private static List<String> toPositionedTokens(String tokens){
+    final List<String> result = new ArrayList<>();
+    int position = -1;
+    for(String token : tokens.split("/")){
+      if(token.isEmpty()){
+        continue;
+      }
+      final int comma = token.lastIndexOf(',');
+      position += Integer.parseInt(token.substring(comma + 1));
+      result.add(token.substring(0, comma) + "," + position);
+    }
+    return result;
+  }
+
+  private static String getTokens(int n, boolean expand, SynonymMap synonyms, String text) throws Exception {
+    final Analyzer a = new NGramSynonymTokenizerTestAnalyzer(n, NGramSynonymTokenizer.DEFAULT_DELIMITERS, expand, synonyms);
+    final TokenStream stream = a.tokenStream("f", new StringReader(text));
+    stream.reset();
+    final StringBuilder sb = new StringBuilder();
+    while(stream.incrementToken()){
+      sb.append(stream.getAttribute(CharTermAttribute.class)).append(',')
+          .append(stream.getAttribute(OffsetAttribute.class).startOffset()).append(',')
+          .append(stream.getAttribute(OffsetAttribute.class).endOffset()).append(',')
+          .append(stream.getAttribute(PositionIncrementAttribute.class).getPositionIncrement()).append('/');
+    }
+    stream.end();
+    stream.close();
+    a.close();
+    return sb.toString();
+  }
+
+  private static String randomText(Random random, String chars, int length){
+    final StringBuilder sb = new StringBuilder();
+    while(sb.length() < length){
+      final int i = random.nextInt(chars.length());
+      if(Character.isHighSurrogate(chars.charAt(i))){
+        sb.append(chars, i, i + 2);
+      }
+      else if(!Character.isLowSurrogate(chars.charAt(i))){
+        sb.append(chars.charAt(i));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String getTokens(int minGram, int maxGram, boolean expand, SynonymMap synonyms, String text,
+      int windowSize) throws Exception {
+    return getTokens(minGram, maxGram, expand, NGramSynonymTokenizer.Mode.INDEX, synonyms, text, windowSize);
+  }
+
+  private static String getTokens(int minGram, int maxGram, boolean expand, NGramSynonymTokenizer.Mode mode,
+      SynonymMap synonyms, String text, int windowSize) throws Exception {
+    return getTokens(minGram, maxGram, expand, mode, false, synonyms, text, windowSize);
+  }
+
+  private static String getTokens(int minGram, int maxGram, boolean expand, NGramSynonymTokenizer.Mode mode,
+      boolean mixedScript, SynonymMap synonyms, String text, int windowSize) throws Exception {
+    final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(minGram, maxGram,
+        Delimiters.of(NGramSynonymTokenizer.DEFAULT_DELIMITERS), expand, mode,
+        SynonymNormalizer.forMatching(true), synonyms.fst == null ? null : new TestSynonymLoader(synonyms), Integer.MAX_VALUE,
+        Integer.MAX_VALUE, new SynonymStats());
+    tokenizer.setMixedScript(mixedScript);
+    tokenizer.windowSize = windowSize;
+    tokenizer.setReader(new StringReader(text));
+    tokenizer.reset();
+    final StringBuilder sb = new StringBuilder();
+    while(tokenizer.incrementToken()){
+      sb.append(tokenizer.getAttribute(CharTermAttribute.class)).append(',')
+          .append(tokenizer.getAttribute(OffsetAttribute.class).startOffset()).append(',')
+          .append(tokenizer.getAttribute(OffsetAttribute.class).endOffset()).append(',')
+          .append(tokenizer.getAttribute(PositionIncrementAttribute.class).getPositionIncrement()).append('/');
+    }
+    tokenizer.end();
+    tokenizer.close();
+    return sb.toString();
+  }
+
+  private static String getReferenceTokens(int n, boolean expand, SynonymMap synonyms, String text) throws Exception {
+    final Tokenizer tokenizer = new ReferenceNGramSynonymTokenizer(n, NGramSynonymTokenizer.DEFAULT_DELIMITERS, expand, true,
+        synonyms);
+    tokenizer.setReader(new StringReader(text));
+    tokenizer.reset();
+    final StringBuilder sb = new StringBuilder();
+    while(tokenizer.incrementToken()){
+      sb.append(tokenizer.getAttribute(CharTermAttribute.class)).append(',')
+          .append(tokenizer.getAttribute(OffsetAttribute.class).startOffset()).append(',')
+          .append(tokenizer.getAttribute(OffsetAttribute.class).endOffset()).append(',')
+          .append(tokenizer.getAttribute(PositionIncrementAttribute.class).getPositionIncrement()).append('/');
+    }
+    tokenizer.end();
+    tokenizer.close();
+    return sb.toString();
+  }
+
   private void assertTokenStream(TokenStream stream, String expectedStream) throws Exception {
     
     String[] expectedTokens = expectedStream.split("/");
@@ -1436,32 +1910,13 @@ public class NGramSynonymTokenizerTest {
 
     protected TokenStreamComponents createComponents(String fieldName) {
             final Tokenizer source = new NGramSynonymTokenizer(n,
-                    delimiters, expand, true, new SynonymLoader(null, null,
-                            expand, null) {
-                        @Override
-                        public SynonymMap getSynonymMap() {
-                            return synonyms;
-                        }
-
-                        @Override
-                        protected void createSynonymMap(boolean reload) {
-                            // nothing
-                        }
-                    });
+                    delimiters, expand, true, new TestSynonymLoader(synonyms));
       return new TokenStreamComponents(source);
     }
     
     private SynonymMap getSynonymMap(String synonyms){
       if(synonyms != null){
-        SolrSynonymParser parser = new SolrSynonymParser(true, true, SynonymLoader.getAnalyzer(true));
-        try {
-          parser.parse(new StringReader(synonyms.replace('/', '\n')));
-          return parser.build();
-        } catch (IOException e) {
-          throw new RuntimeException();
-        } catch (ParseException e) {
-          throw new RuntimeException();
-        }
+        return TestSynonymLoader.parse(synonyms.replace('/', '\n'));
       }
       else
         return null;
@@ -0,0 +1,129 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.junit.Assert.*;
+
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.charfilter.MappingCharFilter;
+import org.apache.lucene.analysis.charfilter.NormalizeCharMap;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.CharFilterFactory;
+import org.elasticsearch.index.analysis.CustomAnalyzer;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.junit.Test;
+
+public class SynonymAnalysisProfilerTest {
+
+  @Test
+  public void testProfile() throws Exception {
+    final SynonymMap synonyms = TestSynonymLoader.parse("a,aa\nb,bb");
+    final NormalizeCharMap.Builder normMap = new NormalizeCharMap.Builder();
+    normMap.add("-", " ");
+    final NormalizeCharMap charMap = normMap.build();
+
+    final CustomAnalyzer analyzer = new CustomAnalyzer("ngram", () -> new NGramSynonymTokenizer(1,
+        NGramSynonymTokenizer.DEFAULT_DELIMITERS, true, SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms),
+        Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats()), new CharFilterFactory[] { new CharFilterFactory() {
+          @Override
+          public String name() {
+            return "dash";
+          }
+
+          @Override
+          public Reader create(Reader reader) {
+            return new MappingCharFilter(charMap, reader);
+          }
+        } }, new TokenFilterFactory[] { filterFactory("syn", input -> new SynonymFilter(input, new TestSynonymLoader(synonyms),
+            SynonymNormalizer.forMatching(true), Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), false)),
+            filterFactory("lower", LowerCaseFilter::new) });
+
+    final List<String> texts = Arrays.asList("xay-b", "b-zz", "");
+    final SynonymAnalysisProfiler.Result result = new SynonymAnalysisProfiler(analyzer).profile(texts, 2, 5);
+
+    long tokens = 0;
+    for (String text : texts) {
+      try (TokenStream stream = analyzer.tokenStream("f", text)) {
+        stream.reset();
+        while (stream.incrementToken()) {
+          tokens++;
+        }
+        stream.end();
+      }
+    }
+    assertEquals(tokens, result.getTokens());
+
+    final StringBuilder sb = new StringBuilder();
+    for (SynonymAnalysisProfiler.Component component : result.getComponents()) {
+      sb.append(component.getName()).append(',').append(component.getKind()).append(',').append(component.getType())
+          .append(',').append(component.getLookups() > 0).append(',').append(component.getArcs() > 0).append(' ');
+      assertTrue(component.getNanos() >= 0);
+      assertTrue(component.getAllocatedBytes() >= -1);
+      assertEquals(component.getLookups() < 0, component.getArcs() < 0);
+    }
+    assertEquals("dash,char_filter,MappingCharFilter,false,false ngram,tokenizer,ngram_synonym,true,true "
+        + "syn,token_filter,synonym_filter,true,true lower,token_filter,LowerCaseFilter,false,false ", sb.toString());
+    assertEquals(-1, result.getComponents().get(0).getLookups());
+    assertEquals(-1, result.getComponents().get(3).getArcs());
+  }
+
+  @Test
+  public void testProfileKeepsStats() throws Exception {
+    final Settings settings = Settings.builder().putList("synonyms", "a,aa", "b,bb").put("n", 1)
+        .put("max_expansions_per_match", 0).build();
+    final IndexSettings indexSettings = newIndexSettings();
+    final NGramSynonymTokenizerFactory tokenizerFactory = new NGramSynonymTokenizerFactory(indexSettings, null, "ngram", settings);
+    final SynonymTokenFilterFactory filterFactory = new SynonymTokenFilterFactory(indexSettings, null, "syn", settings, null);
+    final CustomAnalyzer analyzer =
+        new CustomAnalyzer("ngram", tokenizerFactory, new CharFilterFactory[0], new TokenFilterFactory[] { filterFactory });
+
+    new SynonymAnalysisProfiler(analyzer).profile(Arrays.asList("xay b", "b zz"), 2, 5);
+    assertEquals(0, tokenizerFactory.getStats().getTokens());
+    assertEquals(0, tokenizerFactory.getStats().getMatchLimitHits());
+    assertEquals(0, filterFactory.getStats().getMatchLimitHits());
+
+    try (TokenStream stream = analyzer.tokenStream("f", "xay b")) {
+      stream.reset();
+      while (stream.incrementToken()) {
+        // consume
+      }
+      stream.end();
+    }
+    assertTrue(tokenizerFactory.getStats().getTokens() > 0);
+    assertTrue(tokenizerFactory.getStats().getMatchLimitHits() > 0);
+  }
+
+  private static IndexSettings newIndexSettings() {
+    final Settings settings = Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+        .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1).put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0).build();
+    final Set<Setting<?>> settingSet = new HashSet<>(IndexScopedSettings.BUILT_IN_INDEX_SETTINGS);
+    settingSet.addAll(SynonymSlowLog.SETTINGS);
+    return new IndexSettings(IndexMetaData.builder("test").settings(settings).build(), Settings.EMPTY,
+        new IndexScopedSettings(Settings.EMPTY, settingSet));
+  }
+
+  private static TokenFilterFactory filterFactory(String name, java.util.function.Function<TokenStream, TokenStream> create) {
+    return new TokenFilterFactory() {
+      @Override
+      public String name() {
+        return name;
+      }
+
+      @Override
+      public TokenStream create(TokenStream tokenStream) {
+        return create.apply(tokenStream);
+      }
+    };
+  }
+}
@@ -0,0 +1,230 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.junit.Test;
+
+public class SynonymFilterTest {
+
+  @Test
+  public void testSingleWordSynonym() throws Exception {
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a,aa");
+    TokenStream stream = a.tokenStream("f", new StringReader("b a c"));
+    stream.reset();
+    assertTokenStream(stream, "b,0,1,1/a,2,3,1/aa,2,3,0/c,4,5,1");
+  }
+
+  @Test
+  public void testNoExpand() throws Exception {
+    Analyzer a = new SynonymFilterTestAnalyzer(false, "a,aa,aaa");
+    TokenStream stream = a.tokenStream("f", new StringReader("aaa b"));
+    stream.reset();
+    assertTokenStream(stream, "a,0,3,1/b,4,5,1");
+  }
+
+  @Test
+  public void testMultiWordSynonym() throws Exception {
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a b,c");
+    TokenStream stream = a.tokenStream("f", new StringReader("x a b y"));
+    stream.reset();
+    assertTokenStream(stream, "x,0,1,1/a,2,3,1/c,2,5,0/b,4,5,1/y,6,7,1");
+  }
+
+  @Test
+  public void testIgnoreCase() throws Exception {
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a,aa");
+    TokenStream stream = a.tokenStream("f", new StringReader("A"));
+    stream.reset();
+    assertTokenStream(stream, "A,0,1,1/aa,0,1,0");
+  }
+
+  @Test
+  public void testMaxExpansionsPerMatch() throws Exception {
+    SynonymStats stats = new SynonymStats();
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a,aa,aaa,aaaa", 1, Integer.MAX_VALUE, stats);
+    TokenStream stream = a.tokenStream("f", new StringReader("a b a"));
+    stream.reset();
+    assertTokenStream(stream, "a,0,1,1/aa,0,1,0/b,2,3,1/a,4,5,1/aa,4,5,0");
+    assertEquals(2, stats.getMatchLimitHits());
+    assertEquals(0, stats.getDocLimitHits());
+
+    a = new SynonymFilterTestAnalyzer(false, "a,aa,aaa", 0, Integer.MAX_VALUE, stats);
+    stream = a.tokenStream("f", new StringReader("aaa"));
+    stream.reset();
+    assertTokenStream(stream, "aaa,0,3,1");
+  }
+
+  @Test
+  public void testMaxSynonymTokensPerDoc() throws Exception {
+    SynonymStats stats = new SynonymStats();
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a,aa,aaa/b,bb", Integer.MAX_VALUE, 3, stats);
+    TokenStream stream = a.tokenStream("f", new StringReader("a b a"));
+    stream.reset();
+    assertTokenStream(stream, "a,0,1,1/aa,0,1,0/aaa,0,1,0/b,2,3,1/bb,2,3,0/a,4,5,1");
+    assertEquals(0, stats.getMatchLimitHits());
+    assertEquals(1, stats.getDocLimitHits());
+
+    // the budget is per token stream
+    stream = a.tokenStream("f", new StringReader("a"));
+    stream.reset();
+    assertTokenStream(stream, "a,0,1,1/aa,0,1,0/aaa,0,1,0");
+    assertEquals(1, stats.getDocLimitHits());
+  }
+
+  @Test
+  public void testRuleHits() throws Exception {
+    SynonymStats stats = new SynonymStats(1);
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a,aa/b c,d", Integer.MAX_VALUE, Integer.MAX_VALUE, stats);
+    TokenStream stream = a.tokenStream("f", new StringReader("a b c x A"));
+    stream.reset();
+    assertTokenStream(stream, "a,0,1,1/aa,0,1,0/b,2,3,1/d,2,5,0/c,4,5,1/x,6,7,1/A,8,9,1/aa,8,9,0");
+    stream.end();
+    stream.close();
+    final SynonymRuleHits ruleHits = stats.getRuleHits();
+    assertEquals(1, ruleHits.getSampleInterval());
+    assertEquals("a=2/aa=0/b c=1/d=0/", getRuleHits(ruleHits));
+    assertEquals(2, ruleHits.getUnsampledEntryCount());
+    assertArrayEquals(new int[] { 0, 2 }, ruleHits.getTopEntries(10));
+    assertArrayEquals(new int[] { 0 }, ruleHits.getTopEntries(1));
+
+    // not counted by default
+    stats = new SynonymStats();
+    a = new SynonymFilterTestAnalyzer(true, "a,aa", Integer.MAX_VALUE, Integer.MAX_VALUE, stats);
+    stream = a.tokenStream("f", new StringReader("a"));
+    stream.reset();
+    assertTokenStream(stream, "a,0,1,1/aa,0,1,0");
+    assertNull(stats.getRuleHits());
+  }
+
+  static String getRuleHits(SynonymRuleHits ruleHits) {
+    final StringBuilder sb = new StringBuilder();
+    ruleHits.forEachEntry((input, entry) -> sb.append(input).append('=').append(ruleHits.getHits(entry)).append('/'));
+    return sb.toString();
+  }
+
+  @Test
+  public void testNormalization() throws Exception {
+    SynonymNormalizer normalizer = SynonymNormalizer.of(Arrays.asList("nfkc", "kana"), true);
+    Analyzer a = new SynonymFilterTestAnalyzer(true, normalizer, "ﾃﾚﾋﾞ,tv", Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), false);
+    TokenStream stream = a.tokenStream("f", new StringReader("テレヒ\u3099 ＴＶ Ｘ"));
+    stream.reset();
+    assertTokenStream(stream, "てれひ\u3099,0,4,1/tv,0,4,0/tv,5,7,1/てれひ\u3099,5,7,0/x,8,9,1");
+
+    // ignore_case alone folds only for matching
+    a = new SynonymFilterTestAnalyzer(true, "tv,television");
+    stream = a.tokenStream("f", new StringReader("TV"));
+    stream.reset();
+    assertTokenStream(stream, "TV,0,2,1/television,0,2,0");
+  }
+
+  @Test
+  public void testGraph() throws Exception {
+    // a single token spanning the matched input
+    Analyzer a = new SynonymFilterTestAnalyzer(true, "a b,c", true);
+    TokenStream stream = a.tokenStream("f", new StringReader("x a b y"));
+    stream.reset();
+    assertTokenStream(stream, "x,0,1,1,1/a,2,3,1,1/c,2,5,0,2/b,4,5,1,1/y,6,7,1,1");
+
+    // an output longer than the input makes the input span the same positions
+    a = new SynonymFilterTestAnalyzer(true, "x,y z w", true);
+    stream = a.tokenStream("f", new StringReader("x q"));
+    stream.reset();
+    assertTokenStream(stream, "x,0,1,1,3/y,0,1,0,1/z,0,1,1,1/w,0,1,1,1/q,2,3,1,1");
+  }
+
+  static void assertTokenStream(TokenStream stream, String expectedStream) throws Exception {
+    String[] expectedTokens = expectedStream.split("/");
+    int count = 0;
+    for(String expectedToken : expectedTokens){
+      String[] attrs = expectedToken.split(",");
+      assertTrue("token " + count + " is missing", stream.incrementToken());
+
+      String term = attrs[0];
+      assertEquals("term at token " + count, term, stream.getAttribute(CharTermAttribute.class).toString());
+
+      if(attrs.length > 1){
+        assertEquals("startOffset at token " + count, Integer.parseInt(attrs[1]), stream.getAttribute(OffsetAttribute.class).startOffset());
+
+        if(attrs.length > 2){
+          assertEquals("endOffset at token " + count, Integer.parseInt(attrs[2]), stream.getAttribute(OffsetAttribute.class).endOffset());
+
+          if(attrs.length > 3){
+            assertEquals("posInc at token " + count, Integer.parseInt(attrs[3]), stream.getAttribute(PositionIncrementAttribute.class).getPositionIncrement());
+
+            if(attrs.length > 4){
+              assertEquals("posLen at token " + count, Integer.parseInt(attrs[4]), stream.getAttribute(PositionLengthAttribute.class).getPositionLength());
+            }
+          }
+        }
+      }
+      count++;
+    }
+    assertFalse(stream.incrementToken());
+    stream.end();
+    stream.close();
+  }
+
+  public static final class SynonymFilterTestAnalyzer extends Analyzer {
+
+    final boolean expand;
+    final SynonymNormalizer normalizer;
+    final SynonymMap synonyms;
+    final int maxExpansionsPerMatch;
+    final int maxSynonymTokensPerDoc;
+    final SynonymStats stats;
+    final boolean graph;
+
+    public SynonymFilterTestAnalyzer(boolean expand, String synonyms){
+      this(expand, synonyms, Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+    }
+
+    public SynonymFilterTestAnalyzer(boolean expand, String synonyms, boolean graph){
+      this(expand, SynonymNormalizer.forMatching(true), synonyms, Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), graph);
+    }
+
+    public SynonymFilterTestAnalyzer(boolean expand, String synonyms, int maxExpansionsPerMatch,
+        int maxSynonymTokensPerDoc, SynonymStats stats){
+      this(expand, SynonymNormalizer.forMatching(true), synonyms, maxExpansionsPerMatch, maxSynonymTokensPerDoc, stats, false);
+    }
+
+    public SynonymFilterTestAnalyzer(boolean expand, SynonymNormalizer normalizer, String synonyms, int maxExpansionsPerMatch,
+        int maxSynonymTokensPerDoc, SynonymStats stats, boolean graph){
+      this.expand = expand;
+      this.normalizer = normalizer;
+      this.synonyms = getSynonymMap(expand, normalizer, synonyms);
+      this.maxExpansionsPerMatch = maxExpansionsPerMatch;
+      this.maxSynonymTokensPerDoc = maxSynonymTokensPerDoc;
+      this.stats = stats;
+      this.graph = graph;
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+      final Tokenizer source = new WhitespaceTokenizer();
+      final TokenStream stream = new SynonymFilter(source, new TestSynonymLoader(synonyms), normalizer, maxExpansionsPerMatch, maxSynonymTokensPerDoc, stats, graph);
+      return new TokenStreamComponents(source, stream);
+    }
+
+    private static SynonymMap getSynonymMap(boolean expand, final SynonymNormalizer normalizer, String synonyms){
+      return TestSynonymLoader.parse(synonyms.replace('/', '\n'), expand, new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+          final Tokenizer tokenizer = new WhitespaceTokenizer();
+          return new TokenStreamComponents(tokenizer, normalizer.wrap(tokenizer));
+        }
+      });
+    }
+  }
+}
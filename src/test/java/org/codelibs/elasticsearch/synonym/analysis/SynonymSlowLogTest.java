@@ -0,0 +1,115 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexSettings;
+import org.junit.Test;
+
+public class SynonymSlowLogTest {
+
+  @Test
+  public void testThresholds() throws Exception {
+    final IndexSettings indexSettings = newIndexSettings(Settings.EMPTY);
+    final SynonymSlowLog slowLog = new SynonymSlowLog(indexSettings, "syn", "synonym_filter");
+    assertFalse(slowLog.isEnabled());
+    assertEquals(200, slowLog.getMaxSourceCharsToLog());
+
+    indexSettings.updateIndexMetaData(newIndexMetaData(Settings.builder()
+        .put("index.synonym.slowlog.threshold.analysis.info", "10ms").put("index.synonym.slowlog.source", 5).build()));
+    assertTrue(slowLog.isEnabled());
+    assertEquals(5, slowLog.getMaxSourceCharsToLog());
+
+    indexSettings.updateIndexMetaData(newIndexMetaData(Settings.EMPTY));
+    assertFalse(slowLog.isEnabled());
+  }
+
+  @Test
+  public void testMessage() throws Exception {
+    final SynonymSlowLog slowLog = new SynonymSlowLog(newIndexSettings(Settings.EMPTY), "syn", "ngram_synonym");
+    assertEquals("[test] took[1.5ms], took_millis[1], name[syn], type[ngram_synonym], input_length[10], tokens[3], source[a b]",
+        new SynonymSlowLog.Message(slowLog, 1_500_000, 10, 3, "a\nb").toString());
+  }
+
+  @Test
+  public void testTokenStreams() throws Exception {
+    final SynonymMap synonyms = TestSynonymLoader.parse("a,aa");
+    final Settings settings = Settings.builder().put("index.synonym.slowlog.threshold.analysis.trace", "0ms")
+        .put("index.synonym.slowlog.source", 5).build();
+
+    final RecordingSlowLog tokenizerLog = new RecordingSlowLog(newIndexSettings(settings));
+    final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(1, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        SynonymNormalizer.forMatching(true), new TestSynonymLoader(synonyms), Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+    tokenizer.setSlowLog(tokenizerLog);
+    analyze(tokenizer, tokenizer, "xyzabc");
+    analyze(tokenizer, tokenizer, "ax");
+    // the trailing delimiters are read too
+    analyze(tokenizer, tokenizer, "ax  ");
+    assertEquals("[6,7,xyzab, 2,3,ax, 4,3,ax  ]", tokenizerLog.entries.toString());
+
+    final RecordingSlowLog filterLog = new RecordingSlowLog(newIndexSettings(settings));
+    final Tokenizer whitespace = new WhitespaceTokenizer();
+    final SynonymFilter filter = new SynonymFilter(whitespace, new TestSynonymLoader(synonyms), SynonymNormalizer.forMatching(true),
+        Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats(), false);
+    filter.setSlowLog(filterLog);
+    analyze(whitespace, filter, "x a  yyy ");
+    // the chars of the input tokens
+    assertEquals("[5,4,x a y]", filterLog.entries.toString());
+
+    // not timed without thresholds
+    final RecordingSlowLog disabledLog = new RecordingSlowLog(newIndexSettings(Settings.EMPTY));
+    tokenizer.setSlowLog(disabledLog);
+    analyze(tokenizer, tokenizer, "ax");
+    assertTrue(disabledLog.entries.isEmpty());
+  }
+
+  private static class RecordingSlowLog extends SynonymSlowLog {
+
+    final List<String> entries = new ArrayList<>();
+
+    RecordingSlowLog(IndexSettings indexSettings) {
+      super(indexSettings, "syn", "test");
+    }
+
+    @Override
+    public void onAnalysis(long tookInNanos, int inputLength, int tokens, CharSequence source) {
+      assertTrue(tookInNanos >= 0);
+      entries.add(inputLength + "," + tokens + "," + source);
+    }
+  }
+
+  private static void analyze(Tokenizer tokenizer, TokenStream stream, String text) throws Exception {
+    tokenizer.setReader(new StringReader(text));
+    stream.reset();
+    while (stream.incrementToken()) {
+      // consume
+    }
+    stream.end();
+    stream.close();
+  }
+
+  static IndexSettings newIndexSettings(Settings settings) {
+    final Set<Setting<?>> settingSet = new HashSet<>(IndexScopedSettings.BUILT_IN_INDEX_SETTINGS);
+    settingSet.addAll(SynonymSlowLog.SETTINGS);
+    return new IndexSettings(newIndexMetaData(settings), Settings.EMPTY, new IndexScopedSettings(Settings.EMPTY, settingSet));
+  }
+
+  private static IndexMetaData newIndexMetaData(Settings settings) {
+    return IndexMetaData.builder("test").settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+        .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1).put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0).put(settings)).build();
+  }
+}
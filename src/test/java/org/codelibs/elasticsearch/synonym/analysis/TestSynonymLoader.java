@@ -0,0 +1,53 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+/**
+ * A {@link SynonymLoader} returning a fixed synonym map instead of reading a file.
+ */
+class TestSynonymLoader extends SynonymLoader {
+
+  private final SynonymMap synonyms;
+
+  TestSynonymLoader(SynonymMap synonyms) {
+    super(null, null, true, null);
+    this.synonyms = synonyms;
+  }
+
+  /**
+   * Returns a loader of Solr rules separated by new lines, expanded and case-insensitive.
+   */
+  static TestSynonymLoader of(String rules) {
+    return new TestSynonymLoader(parse(rules));
+  }
+
+  static SynonymMap parse(String rules) {
+    return parse(rules, true, SynonymLoader.getAnalyzer(true));
+  }
+
+  static SynonymMap parse(String rules, boolean expand, Analyzer analyzer) {
+    final SolrSynonymParser parser = new SolrSynonymParser(true, expand, analyzer);
+    try {
+      parser.parse(new StringReader(rules));
+      return parser.build();
+    } catch (IOException | ParseException e) {
+      throw new IllegalArgumentException("invalid rules: " + rules, e);
+    }
+  }
+
+  @Override
+  public SynonymMap getSynonymMap() {
+    return synonyms;
+  }
+
+  @Override
+  protected void createSynonymMap(boolean reload) {
+    // nothing
+  }
+}
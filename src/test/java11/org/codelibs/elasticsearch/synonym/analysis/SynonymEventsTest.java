@@ -0,0 +1,125 @@
+package org.codelibs.elasticsearch.synonym.analysis;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class SynonymEventsTest {
+
+  private Path home;
+
+  private Recording recording;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue(SynonymEvents.INSTANCE instanceof JfrSynonymEvents);
+    home = Files.createTempDirectory("synonym-events");
+    Files.createDirectories(home.resolve("config"));
+    recording = new Recording();
+    for (String name : new String[] { "DictionaryBuild", "AutomatonBuild", "Reload", "SlowAnalysis" }) {
+      recording.enable("org.codelibs.synonym." + name).withThreshold(java.time.Duration.ZERO);
+    }
+    recording.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (recording != null) {
+      recording.close();
+    }
+    if (home != null) {
+      for (File file : home.resolve("config").toFile().listFiles()) {
+        file.delete();
+      }
+      home.resolve("config").toFile().delete();
+      home.toFile().delete();
+    }
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    final Path file = home.resolve("config").resolve("synonym.txt");
+    Files.write(file, "a,aa\nb,bb\n".getBytes(StandardCharsets.UTF_8));
+    final Settings settings = Settings.builder().put("path.home", home.toString()).put("synonyms_path", "synonym.txt")
+        .put("dynamic_reload", true).put("reload_interval", "0s").build();
+    final SynonymLoader loader = new SynonymLoader(new Environment(settings, home.resolve("config")), settings, true,
+        SynonymLoader.getAnalyzer(true));
+
+    final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(1, NGramSynonymTokenizer.DEFAULT_DELIMITERS, true,
+        SynonymNormalizer.forMatching(true), loader, Integer.MAX_VALUE, Integer.MAX_VALUE, new SynonymStats());
+    analyze(tokenizer, tokenizer, "xay");
+
+    Files.write(file, "a,aa\nb,bb\nc,cc\n".getBytes(StandardCharsets.UTF_8));
+    file.toFile().setLastModified(file.toFile().lastModified() + 2000);
+    Thread.sleep(10);
+    final Tokenizer whitespace = new WhitespaceTokenizer();
+    final SynonymFilter filter = new SynonymFilter(whitespace, loader, true);
+    analyze(whitespace, filter, "x c");
+
+    recording.stop();
+    final Path dump = home.resolve("config").resolve("events.jfr");
+    recording.dump(dump);
+    final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+
+    final List<String> builds = new ArrayList<>();
+    final List<String> reloads = new ArrayList<>();
+    final List<String> analyses = new ArrayList<>();
+    int automatonBuilds = 0;
+    for (RecordedEvent event : events) {
+      switch (event.getEventType().getName()) {
+      case "org.codelibs.synonym.DictionaryBuild":
+        builds.add(event.getString("source") + "," + event.getBoolean("reload") + "," + event.getInt("lines") + ","
+            + event.getLong("chars"));
+        assertTrue(event.getLong("fstBytes") > 0);
+        break;
+      case "org.codelibs.synonym.AutomatonBuild":
+        assertEquals(4, event.getInt("entries"));
+        automatonBuilds++;
+        break;
+      case "org.codelibs.synonym.Reload":
+        reloads.add(event.getString("component"));
+        break;
+      case "org.codelibs.synonym.SlowAnalysis":
+        analyses.add(event.getString("component") + "," + event.getInt("inputLength") + "," + event.getInt("tokens") + ","
+            + event.getInt("synonymTokens"));
+        break;
+      default:
+        break;
+      }
+    }
+    assertEquals("[synonym.txt,false,2,10, synonym.txt,true,3,15]", builds.toString());
+    assertEquals(1, automatonBuilds);
+    assertEquals("[synonym_filter]", reloads.toString());
+    assertEquals("[ngram_synonym,3,4,1, synonym_filter,2,3,1]", analyses.toString());
+  }
+
+  private static void analyze(Tokenizer tokenizer, TokenStream stream, String text) throws Exception {
+    tokenizer.setReader(new StringReader(text));
+    stream.reset();
+    while (stream.incrementToken()) {
+      // consume
+    }
+    stream.end();
+    stream.close();
+  }
+}